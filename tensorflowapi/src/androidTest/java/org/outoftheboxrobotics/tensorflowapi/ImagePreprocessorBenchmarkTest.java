@@ -0,0 +1,138 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.support.image.ImageProcessor;
+import org.tensorflow.lite.support.image.TensorImage;
+import org.tensorflow.lite.support.image.ops.ResizeOp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares ImagePreprocessor with the TensorImage path the detector used before it
+ *
+ * No model is needed, both paths just fill an input buffer for a 320x320 model from a 640x480 camera frame
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImagePreprocessorBenchmarkTest {
+    private static final String TAG = "PreprocessorBenchmark";
+    private static final int FRAME_WIDTH = 640, FRAME_HEIGHT = 480, MODEL_SIZE = 320;
+    private static final int WARMUP = 10, FRAMES = 100;
+    //The runtime counts allocations from every thread, so a few stray bytes per frame are not ours
+    private static final long MAX_BYTES_PER_FRAME = 1024;
+
+    private Mat frame;
+
+    @Before
+    public void setUp(){
+        TestModels.loadOpenCV();
+        //EOCV passes RGBA frames
+        frame = new Mat(FRAME_HEIGHT, FRAME_WIDTH, CvType.CV_8UC4);
+        Core.randu(frame, 0, 256);
+    }
+
+    @After
+    public void tearDown(){
+        if(frame != null){
+            frame.release();
+        }
+    }
+
+    @Test
+    public void directFloatPathAllocatesNothingAndIsFaster(){
+        compare(DataType.FLOAT32);
+    }
+
+    @Test
+    public void directIntegerPathAllocatesNothingAndIsFaster(){
+        compare(DataType.UINT8);
+    }
+
+    private void compare(DataType dataType){
+        BenchmarkResult before = measure("TensorImage", new Runnable() {
+            @Override
+            public void run() {
+                processLikeBefore(frame);
+            }
+        });
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MODEL_SIZE * MODEL_SIZE * 3 * (dataType == DataType.FLOAT32 ? 4 : 1))
+                .order(ByteOrder.nativeOrder());
+        final ImagePreprocessor preprocessor = new ImagePreprocessor(dataType, MODEL_SIZE, MODEL_SIZE, 127.5f, 127.5f, buffer);
+        BenchmarkResult after;
+        try {
+            after = measure("ImagePreprocessor " + dataType, new Runnable() {
+                @Override
+                public void run() {
+                    preprocessor.process(frame);
+                }
+            });
+        } finally {
+            preprocessor.release();
+        }
+
+        RobotLog.ii(TAG, before.toString());
+        RobotLog.ii(TAG, after.toString());
+        TestModels.assumeAllocationsCounted(before);
+
+        assertTrue("ImagePreprocessor allocated " + after.getAllocatedBytesPerOp() + " bytes per frame",
+                after.getAllocatedBytesPerOp() <= MAX_BYTES_PER_FRAME);
+        //The old path allocated a full frame int[] every frame
+        assertTrue("The old path only allocated " + before.getAllocatedBytesPerOp() + " bytes per frame",
+                before.getAllocatedBytesPerOp() >= FRAME_WIDTH * FRAME_HEIGHT * 3 * 4);
+        assertTrue("ImagePreprocessor took " + after.getP50Nanos() + "ns, the old path took " + before.getP50Nanos() + "ns",
+                after.getP50Nanos() < before.getP50Nanos());
+    }
+
+    private static BenchmarkResult measure(String configuration, Runnable frame){
+        BenchmarkRecorder recorder = new BenchmarkRecorder(configuration, "Preprocess", FRAMES);
+        for(int i = 0; i < WARMUP; i ++){
+            recorder.start();
+            frame.run();
+            recorder.stop();
+        }
+        recorder.reset();
+        for(int i = 0; i < FRAMES; i ++){
+            recorder.start();
+            frame.run();
+            recorder.stop();
+        }
+        return recorder.result();
+    }
+
+    /**
+     * What recognize(Mat) did before ImagePreprocessor, kept here to compare against
+     */
+    private static ByteBuffer processLikeBefore(Mat in){
+        Mat in_32SC3 = new Mat();
+        Imgproc.cvtColor(in, in_32SC3, Imgproc.COLOR_RGBA2RGB);
+        in_32SC3.convertTo(in_32SC3, CvType.CV_32SC3);
+
+        int[] data = new int[(int) (in_32SC3.channels() * in_32SC3.total())];
+        in_32SC3.get(0, 0, data);
+
+        TensorImage image = new TensorImage(DataType.FLOAT32);
+        image.load(data, new int[]{in_32SC3.width(), in_32SC3.height(), in_32SC3.channels()});
+        image = new ImageProcessor.Builder()
+                .add(new ResizeOp(MODEL_SIZE, MODEL_SIZE, ResizeOp.ResizeMethod.BILINEAR))
+                .build()
+                .process(image);
+
+        in_32SC3.release();
+        return image.getBuffer();
+    }
+}
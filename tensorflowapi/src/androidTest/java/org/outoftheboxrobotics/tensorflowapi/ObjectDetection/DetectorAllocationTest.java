@@ -0,0 +1,82 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkRecorder;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkResult;
+import org.outoftheboxrobotics.tensorflowapi.TestModels;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the steady state detection loop does not create garbage
+ *
+ * Needs the test detector model, see TestModels
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectorAllocationTest {
+    private static final String TAG = "DetectorAllocationTest";
+    private static final int WARMUP = 10, FRAMES = 50;
+    //The runtime counts allocations from every thread, so a few stray bytes per frame are not ours
+    private static final long MAX_BYTES_PER_FRAME = 1024;
+
+    private TensorObjectDetector detector;
+    private Mat frame;
+
+    @Before
+    public void setUp() throws IOException {
+        TestModels.loadOpenCV();
+        HardwareMap map = TestModels.hardwareMap();
+        TestModels.assumeModel(map, TestModels.DETECTOR);
+
+        //Drawing builds label strings, which is not what this test is about
+        detector = new TFODBuilder(map, TestModels.DETECTOR, TestModels.detectorLabels())
+                .setOverlayMode(OverlayMode.OFF)
+                .build();
+        frame = new Mat(480, 640, CvType.CV_8UC4);
+        Core.randu(frame, 0, 256);
+    }
+
+    @After
+    public void tearDown(){
+        if(detector != null){
+            detector.close();
+        }
+        if(frame != null){
+            frame.release();
+        }
+    }
+
+    @Test
+    public void recognizeIntoAllocatesNothingAfterWarmup(){
+        DetectionBatch batch = new DetectionBatch();
+        BenchmarkRecorder recorder = new BenchmarkRecorder("recognizeInto", "Total", FRAMES);
+        for(int i = 0; i < WARMUP; i ++){
+            detector.recognizeInto(frame, batch);
+        }
+
+        for(int i = 0; i < FRAMES; i ++){
+            recorder.start();
+            detector.recognizeInto(frame, batch);
+            recorder.stop();
+        }
+        BenchmarkResult result = recorder.result();
+        RobotLog.ii(TAG, result.toString());
+        TestModels.assumeAllocationsCounted(result);
+
+        assertTrue("recognizeInto allocated " + result.getAllocatedBytesPerOp() + " bytes per frame",
+                result.getAllocatedBytesPerOp() <= MAX_BYTES_PER_FRAME);
+    }
+}
@@ -0,0 +1,99 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.qualcomm.robotcore.hardware.HardwareMap;
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkRecorder;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkResult;
+import org.outoftheboxrobotics.tensorflowapi.TestModels;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that diagnostics never slow down inference
+ *
+ * The same model is run with diagnostics off and with every candidate logged, alternating frames so both see the
+ * same thermal state. With diagnostics off the detector has no log at all, so it is the baseline, and logging every
+ * candidate must not make frames noticeably slower then it. Needs the test detector model, see TestModels
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiagnosticsLatencyTest {
+    private static final String TAG = "DiagnosticsLatencyTest";
+    private static final int WARMUP = 20, FRAMES = 300;
+    //Frame times on a phone wobble between runs (thermals, other apps, the scheduler), this is well above that noise
+    //but well below what formatting and writing every candidate on the inference thread would cost
+    private static final double TOLERANCE = 1.25;
+
+    private TensorObjectDetector off, full;
+    private Mat frame;
+
+    @Before
+    public void setUp() throws IOException {
+        TestModels.loadOpenCV();
+        HardwareMap map = TestModels.hardwareMap();
+        TestModels.assumeModel(map, TestModels.DETECTOR);
+
+        off = new TFODBuilder(map, TestModels.DETECTOR, TestModels.detectorLabels())
+                .setOverlayMode(OverlayMode.OFF)
+                .setDiagnostics(DiagnosticsMode.OFF)
+                .build();
+        full = new TFODBuilder(map, TestModels.DETECTOR, TestModels.detectorLabels())
+                .setOverlayMode(OverlayMode.OFF)
+                .setDiagnostics(DiagnosticsMode.FULL)
+                .build();
+        frame = new Mat(480, 640, CvType.CV_8UC4);
+        Core.randu(frame, 0, 256);
+    }
+
+    @After
+    public void tearDown(){
+        if(off != null){
+            off.close();
+        }
+        if(full != null){
+            full.close();
+        }
+        if(frame != null){
+            frame.release();
+        }
+    }
+
+    @Test
+    public void latencyIsUnaffectedWithDiagnosticsOff(){
+        BenchmarkRecorder offRecorder = new BenchmarkRecorder("Diagnostics OFF", "Total", FRAMES);
+        BenchmarkRecorder fullRecorder = new BenchmarkRecorder("Diagnostics FULL", "Total", FRAMES);
+        for(int i = 0; i < WARMUP; i ++){
+            off.recognize(frame);
+            full.recognize(frame);
+        }
+
+        for(int i = 0; i < FRAMES; i ++){
+            offRecorder.start();
+            off.recognize(frame);
+            offRecorder.stop();
+
+            fullRecorder.start();
+            full.recognize(frame);
+            fullRecorder.stop();
+        }
+        BenchmarkResult offResult = offRecorder.result();
+        BenchmarkResult fullResult = fullRecorder.result();
+        RobotLog.ii(TAG, offResult.toString());
+        RobotLog.ii(TAG, fullResult.toString());
+
+        //Logging is done on a background thread, so even full logging should not show up in frame times
+        assertTrue("Diagnostics FULL took " + fullResult.getP50Nanos() + "ns, OFF took " + offResult.getP50Nanos() + "ns",
+                fullResult.getP50Nanos() <= offResult.getP50Nanos() * TOLERANCE);
+    }
+}
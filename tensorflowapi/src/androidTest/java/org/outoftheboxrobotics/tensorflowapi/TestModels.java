@@ -0,0 +1,71 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.qualcomm.robotcore.hardware.HardwareMap;
+
+import org.junit.Assume;
+
+import java.io.IOException;
+
+/**
+ * Shared setup for the instrumented tests
+ *
+ * The detector tests need a model in src/androidTest/assets named test_detector.tflite
+ * Any SSD MobileNet with the TFLite_Detection_PostProcess outputs works, like the ones the FTC SDK ships
+ * There is no model checked in, so without one those tests are skipped instead of failing
+ */
+public final class TestModels {
+    public static final String DETECTOR = "test_detector.tflite";
+
+    private TestModels(){
+    }
+
+    /**
+     * @return placeholder labels for the test detector, enough for every COCO class id
+     */
+    public static String[] detectorLabels(){
+        String[] labels = new String[100];
+        for(int i = 0; i < labels.length; i ++){
+            labels[i] = "Label " + i;
+        }
+        return labels;
+    }
+
+    /**
+     * Loads the OpenCV native library, which the robot controller app normally loads for us
+     */
+    public static void loadOpenCV(){
+        try {
+            System.loadLibrary("opencv_java4");
+        } catch (UnsatisfiedLinkError e) {
+            Assume.assumeTrue("OpenCV is not available on this device", false);
+        }
+    }
+
+    /**
+     * @return a hardware map that can load models from the test assets
+     */
+    public static HardwareMap hardwareMap(){
+        //A library's tests run in their own apk, so the assets are in the instrumentation context
+        return new HardwareMap(InstrumentationRegistry.getInstrumentation().getContext());
+    }
+
+    /**
+     * Skips the test if a model is not in the test assets
+     */
+    public static void assumeModel(HardwareMap map, String modelName){
+        try {
+            map.appContext.getAssets().openFd(modelName).close();
+        } catch (IOException e) {
+            Assume.assumeTrue(modelName + " is not in src/androidTest/assets", false);
+        }
+    }
+
+    /**
+     * Skips the test if the runtime does not count allocations, getRuntimeStat needs Android 6.0
+     */
+    public static void assumeAllocationsCounted(BenchmarkResult result){
+        Assume.assumeTrue("The runtime does not report allocated bytes", result.getAllocatedBytesPerOp() >= 0);
+    }
+}
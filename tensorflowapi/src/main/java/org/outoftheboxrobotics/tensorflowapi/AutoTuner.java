@@ -0,0 +1,149 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the fastest thread count and XNNPack setting for a model on the device it is running on
+ *
+ * Every combination of 1 to maxThreads threads with XNNPack on and off is built, warmed up and timed on noise frames
+ * The fastest one (by median time) is written back to the InterpreterConfig
+ * Used by TFODBuilder.autoTune() and TFICBuilder.autoTune()
+ */
+public final class AutoTuner {
+    private static final String TAG = "AutoTuner";
+
+    //EOCV frames are RGBA, and 640x480 is the most common camera size
+    private static final int FRAME_WIDTH = 640, FRAME_HEIGHT = 480;
+
+    /**
+     * Builds a model with the config as it is currently set
+     */
+    public interface Factory {
+        Candidate build() throws IOException;
+    }
+
+    /**
+     * A model being tried out
+     */
+    public interface Candidate {
+        void run(Mat frame);
+
+        void close();
+    }
+
+    private AutoTuner(){}
+
+    /**
+     * Tries every configuration and sets config to the fastest one
+     * Configurations that fail to build or run are skipped
+     * If none of them work, or building one throws, config is left the way it was
+     * @param warmupIterations unmeasured runs before timing each configuration
+     * @param iterations measured runs for each configuration
+     * @return the timing of every configuration that worked
+     */
+    public static Result tune(InterpreterConfig config, int maxThreads, int warmupIterations, int iterations, Factory factory) throws IOException {
+        List<BenchmarkResult> candidates = new ArrayList<>();
+        BenchmarkResult best = null;
+        int bestThreads = config.getNumThreads();
+        boolean bestXNNPack = false;
+        int originalThreads = config.getNumThreads();
+        Boolean originalXNNPack = config.getUseXNNPack();
+        boolean tuned = false;
+
+        Mat frame = new Mat(FRAME_HEIGHT, FRAME_WIDTH, CvType.CV_8UC4);
+        Core.randu(frame, 0, 256);
+        try {
+            for(int threads = 1; threads <= maxThreads; threads ++){
+                for(boolean xnnPack : new boolean[]{false, true}){
+                    config.setNumThreads(threads);
+                    config.setUseXNNPack(xnnPack);
+                    String configuration = "threads=" + threads + " xnnpack=" + xnnPack;
+
+                    BenchmarkResult result;
+                    try {
+                        result = measure(factory, frame, configuration, warmupIterations, iterations);
+                    } catch (RuntimeException e) {
+                        //Some delegates can't run some models, that just means this one loses
+                        RobotLog.ww(TAG, "Skipping " + configuration + ": " + e.getMessage());
+                        continue;
+                    }
+                    candidates.add(result);
+                    RobotLog.ii(TAG, result.toString());
+
+                    if(best == null || result.getP50Nanos() < best.getP50Nanos()){
+                        best = result;
+                        bestThreads = threads;
+                        bestXNNPack = xnnPack;
+                    }
+                }
+            }
+
+            if(best == null){
+                throw new TensorProcessingException("Auto tuning failed, the model could not run with any configuration");
+            }
+            config.setNumThreads(bestThreads);
+            config.setUseXNNPack(bestXNNPack);
+            tuned = true;
+        } finally {
+            frame.release();
+            if(!tuned){
+                //Otherwise the config would be left on whatever was tried last
+                config.setNumThreads(originalThreads);
+                config.restoreUseXNNPack(originalXNNPack);
+            }
+        }
+        RobotLog.ii(TAG, "Chose " + best.getConfiguration());
+        return new Result(candidates, best);
+    }
+
+    private static BenchmarkResult measure(Factory factory, Mat frame, String configuration, int warmupIterations, int iterations) throws IOException {
+        Candidate candidate = factory.build();
+        try {
+            for(int i = 0; i < warmupIterations; i ++){
+                candidate.run(frame);
+            }
+            BenchmarkRecorder recorder = new BenchmarkRecorder(configuration, "total", iterations);
+            for(int i = 0; i < iterations; i ++){
+                recorder.start();
+                candidate.run(frame);
+                recorder.stop();
+            }
+            return recorder.result();
+        } finally {
+            candidate.close();
+        }
+    }
+
+    public static class Result {
+        private final List<BenchmarkResult> candidates;
+        private final BenchmarkResult chosen;
+
+        private Result(List<BenchmarkResult> candidates, BenchmarkResult chosen){
+            this.candidates = Collections.unmodifiableList(candidates);
+            this.chosen = chosen;
+        }
+
+        /**
+         * @return the timing of every configuration that was tried
+         */
+        public List<BenchmarkResult> getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * @return the timing of the fastest configuration, which the model was built with
+         */
+        public BenchmarkResult getChosen() {
+            return chosen;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import android.os.Build;
+import android.os.Debug;
+
+import java.util.Arrays;
+
+/**
+ * Collects timings for one stage of a benchmark
+ *
+ * Call start() and stop() around each run of the stage, then result() to get the percentiles
+ */
+public class BenchmarkRecorder {
+    private final String configuration, stage;
+    private final long[] samples;
+    private int count;
+    private long startNanos, totalAllocated;
+    private long startAllocated;
+
+    public BenchmarkRecorder(String configuration, String stage, int iterations){
+        this.configuration = configuration;
+        this.stage = stage;
+        this.samples = new long[iterations];
+    }
+
+    public void start(){
+        startAllocated = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    public void stop(){
+        long elapsed = System.nanoTime() - startNanos;
+        long allocated = allocatedBytes();
+        if(count < samples.length){
+            samples[count ++] = elapsed;
+        }
+        if(startAllocated >= 0 && allocated >= 0){
+            totalAllocated += allocated - startAllocated;
+        }else{
+            totalAllocated = -1;
+        }
+    }
+
+    /**
+     * Throws away everything recorded so far, used to drop warmup runs
+     */
+    public void reset(){
+        count = 0;
+        totalAllocated = 0;
+    }
+
+    public BenchmarkResult result(){
+        if(count == 0){
+            return new BenchmarkResult(configuration, stage, 0, 0, 0, 0, 0);
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        long total = 0;
+        for(long sample : sorted){
+            total += sample;
+        }
+        return new BenchmarkResult(configuration, stage, count,
+                sorted[(int) ((count - 1) * 0.5)],
+                sorted[(int) ((count - 1) * 0.99)],
+                total / count,
+                totalAllocated < 0 ? -1 : totalAllocated / count);
+    }
+
+    /**
+     * Total bytes allocated by the runtime so far
+     * This counts every thread in the process, so background threads add some noise
+     * Reading the counter creates a String, so there is a small constant overhead in every sample
+     * @return the byte count, or -1 if the runtime does not report it (before Android 6.0)
+     */
+    private static long allocatedBytes(){
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.M){
+            return -1;
+        }
+        String stat = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        try {
+            return stat == null ? -1 : Long.parseLong(stat);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import java.util.Locale;
+
+/**
+ * Timing of one stage of a model under one configuration, as measured by TFODBenchmark or TFICBenchmark
+ */
+public class BenchmarkResult {
+    private final String configuration;
+    private final String stage;
+    private final int iterations;
+    private final long p50Nanos, p99Nanos, meanNanos;
+    private final long allocatedBytesPerOp;
+
+    public BenchmarkResult(String configuration, String stage, int iterations, long p50Nanos, long p99Nanos, long meanNanos, long allocatedBytesPerOp){
+        this.configuration = configuration;
+        this.stage = stage;
+        this.iterations = iterations;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.meanNanos = meanNanos;
+        this.allocatedBytesPerOp = allocatedBytesPerOp;
+    }
+
+    /**
+     * @return description of the settings this was measured with, like thread count and image size
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    /**
+     * @return how many times per second this stage could run, based on the mean time
+     */
+    public double getOpsPerSecond() {
+        return meanNanos == 0 ? 0 : 1e9 / meanNanos;
+    }
+
+    /**
+     * @return bytes allocated on the Java heap per run, or -1 if the runtime does not report allocations
+     */
+    public long getAllocatedBytesPerOp() {
+        return allocatedBytesPerOp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s | %s: %.1f ops/s, p50 %.2f ms, p99 %.2f ms, %d B/op",
+                configuration, stage, getOpsPerSecond(), p50Nanos / 1e6, p99Nanos / 1e6, allocatedBytesPerOp);
+    }
+}
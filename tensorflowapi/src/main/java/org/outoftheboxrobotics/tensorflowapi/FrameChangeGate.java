@@ -0,0 +1,109 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decides if a frame is different enough from the last one the model ran on to be worth running the model again
+ *
+ * Each frame is shrunk to a tiny grayscale thumbnail, which is compared to the thumbnail of the last frame the model ran on
+ * If the average pixel difference is below the threshold, the scene has not changed and the last result can be reused
+ * Comparing against the last frame that was run (instead of the previous frame) means slow changes still add up and get noticed
+ *
+ * Shrinking the frame takes a fraction of a millisecond, much less then running a model
+ */
+public class FrameChangeGate {
+    private static final Size SIGNATURE_SIZE = new Size(32, 24);
+
+    private final double threshold;
+    private final long maxStalenessNanos;
+
+    private Mat reference, current = new Mat(), small = new Mat(), difference = new Mat();
+    private long referenceNanos;
+    private long hits, misses;
+
+    /**
+     * @param threshold average difference per pixel (0-255) that counts as a change, 2 to 5 works for most cameras
+     * @param maxStalenessMillis the model is run at least this often, even if nothing changed
+     */
+    public FrameChangeGate(double threshold, long maxStalenessMillis){
+        this.threshold = threshold;
+        this.maxStalenessNanos = maxStalenessMillis * 1000000;
+    }
+
+    /**
+     * Checks a frame, and if it changed, makes it the new reference
+     * @return true if the model should run on this frame
+     */
+    public synchronized boolean shouldRun(Mat frame){
+        long now = System.nanoTime();
+        Imgproc.resize(frame, small, SIGNATURE_SIZE, 0, 0, Imgproc.INTER_AREA);
+        if(small.channels() == 1){
+            small.copyTo(current);
+        }else{
+            Imgproc.cvtColor(small, current, small.channels() == 4 ? Imgproc.COLOR_RGBA2GRAY : Imgproc.COLOR_RGB2GRAY);
+        }
+
+        boolean changed;
+        if(reference == null || now - referenceNanos > maxStalenessNanos){
+            changed = true;
+        }else{
+            Core.absdiff(reference, current, difference);
+            changed = Core.mean(difference).val[0] > threshold;
+        }
+
+        if(changed){
+            //Swap instead of copy, the old reference becomes the next scratch Mat
+            Mat old = reference == null ? new Mat(SIGNATURE_SIZE, CvType.CV_8UC1) : reference;
+            reference = current;
+            current = old;
+            referenceNanos = now;
+            misses ++;
+        }else{
+            hits ++;
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets the reference frame, so the model runs on the next frame
+     */
+    public synchronized void reset(){
+        if(reference != null){
+            reference.release();
+            reference = null;
+        }
+    }
+
+    /**
+     * @return number of frames that reused the last result
+     */
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    /**
+     * @return number of frames the model ran on
+     */
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    /**
+     * @return fraction of frames that reused the last result
+     */
+    public synchronized double getHitRate(){
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized void release(){
+        reset();
+        current.release();
+        small.release();
+        difference.release();
+    }
+}
@@ -0,0 +1,379 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds recorded frames through a model, so the same footage can be compared between library versions and models
+ *
+ * Frames come from a folder of images or a video file, and are decoded on their own thread into a small queue,
+ * so decoding does not count towards the model's time. Frames are run as fast as possible or at a fixed fps
+ * Every frame's timing and result can be written to a CSV file, which can be diffed between runs
+ *
+ * This needs the robot controller app, so run it from an OpMode with the footage copied to the device
+ * Images are read with Imgcodecs. Videos need a VideoCapture backend, which the Android OpenCV build may not have, so images are the safe choice
+ *
+ * Usage:
+ * <pre>
+ * BenchmarkResult result = new FrameReplay(FrameReplay.images(new File("/sdcard/FIRST/replay")))
+ *         .setOutput(new File("/sdcard/FIRST/replay.csv"))
+ *         .run(new TFODReplay(detector));
+ * </pre>
+ */
+public class FrameReplay {
+    private static final String TAG = "FrameReplay";
+
+    /**
+     * Where frames come from, only ever called from the decoding thread
+     */
+    public interface Source extends Closeable {
+        /**
+         * @return the next frame as RGB, or null when there are no more
+         */
+        Mat next() throws IOException;
+
+        /**
+         * @return what this source is, for the results
+         */
+        String describe();
+    }
+
+    /**
+     * Runs the model on one frame
+     */
+    public interface Handler {
+        /**
+         * Runs the model on a frame, only this is timed
+         */
+        void process(Mat frame);
+
+        /**
+         * Called after process() when there is an output file, so formatting is not part of the timing
+         * @return the result of the last frame for the CSV file, like the detections as text
+         */
+        String getResult();
+    }
+
+    //Marks the end of the frames in the queue
+    private static final Frame END = new Frame(null, -1);
+
+    private final Source source;
+    private double fps = 0;
+    private int queueSize = 4;
+    private int maxFrames = 0;
+    private File output;
+
+    public FrameReplay(Source source){
+        this.source = source;
+    }
+
+    /**
+     * Runs frames at a fixed rate like a camera would, instead of as fast as possible
+     * If the model is slower then this, frames are still run one after the other and counted as late
+     * Default is 0 (as fast as possible)
+     */
+    public FrameReplay setFps(double fps){
+        this.fps = fps;
+        return this;
+    }
+
+    /**
+     * How many decoded frames can wait for the model, more smooths out slow decodes but holds more memory
+     * Default is 4
+     */
+    public FrameReplay setQueueSize(int queueSize){
+        if(queueSize < 1){
+            throw new IllegalArgumentException("Queue size must be at least 1");
+        }
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * Stops after this many frames, 0 runs every frame
+     * Default is 0
+     */
+    public FrameReplay setMaxFrames(int maxFrames){
+        this.maxFrames = maxFrames;
+        return this;
+    }
+
+    /**
+     * Writes a row for every frame: frame number, microseconds spent waiting for the decoder, microseconds in the model, and the result
+     * Default is no file
+     */
+    public FrameReplay setOutput(File output){
+        this.output = output;
+        return this;
+    }
+
+    /**
+     * Runs every frame through the handler, the source is closed when this returns
+     * @return timings of the handler over every frame, along with the number of late frames in the configuration
+     */
+    public BenchmarkResult run(Handler handler) throws IOException {
+        //Opened before the decoder starts, so a bad path doesn't leave it blocked on a full queue
+        Writer writer;
+        try {
+            writer = output == null ? null : new BufferedWriter(new FileWriter(output));
+        } catch (IOException e) {
+            closeSource();
+            throw e;
+        }
+
+        final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(queueSize);
+        final IOException[] decodeError = new IOException[1];
+        Thread decoder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decode(queue, decodeError);
+            }
+        }, "FrameReplay Decoder");
+        decoder.setDaemon(true);
+        decoder.start();
+
+        long[] samples = new long[256];
+        int count = 0, late = 0;
+        long total = 0;
+        long periodNanos = fps > 0 ? (long) (1e9 / fps) : 0;
+        long start = System.nanoTime();
+        try {
+            if(writer != null){
+                writer.write("frame,wait_us,process_us,result\n");
+            }
+            while(true){
+                long waitStart = System.nanoTime();
+                Frame frame = queue.take();
+                long waited = System.nanoTime() - waitStart;
+                if(frame == END){
+                    break;
+                }
+
+                try {
+                    if(periodNanos > 0){
+                        long due = start + frame.index * periodNanos;
+                        long now = System.nanoTime();
+                        if(now < due){
+                            TimeUnit.NANOSECONDS.sleep(due - now);
+                        }else if(now - due > periodNanos){
+                            late ++;
+                        }
+                    }
+
+                    long processStart = System.nanoTime();
+                    handler.process(frame.mat);
+                    long elapsed = System.nanoTime() - processStart;
+
+                    if(count == samples.length){
+                        samples = Arrays.copyOf(samples, count * 2);
+                    }
+                    samples[count ++] = elapsed;
+                    total += elapsed;
+                    if(writer != null){
+                        writer.write(frame.index + "," + waited / 1000 + "," + elapsed / 1000 + "," + quote(handler.getResult()) + "\n");
+                    }
+                } finally {
+                    frame.mat.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TensorProcessingException("Interrupted while replaying frames");
+        } finally {
+            //Stops the decoder if the handler threw, it checks for interrupts between frames
+            decoder.interrupt();
+            drain(queue);
+            if(writer != null){
+                writer.close();
+            }
+        }
+        if(decodeError[0] != null){
+            throw decodeError[0];
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String configuration = String.format(Locale.US, "%s, %.1f fps%s", source.describe(), count / seconds, late > 0 ? ", " + late + " late" : "");
+        RobotLog.ii(TAG, "Replayed " + count + " frames from " + configuration);
+        if(count == 0){
+            return new BenchmarkResult(configuration, "replay", 0, 0, 0, 0, -1);
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return new BenchmarkResult(configuration, "replay", count,
+                sorted[(int) ((count - 1) * 0.5)],
+                sorted[(int) ((count - 1) * 0.99)],
+                total / count, -1);
+    }
+
+    private void decode(BlockingQueue<Frame> queue, IOException[] error){
+        boolean stopped = false;
+        try {
+            int index = 0;
+            while(!Thread.currentThread().isInterrupted() && (maxFrames <= 0 || index < maxFrames)){
+                Mat mat = source.next();
+                if(mat == null){
+                    break;
+                }
+                try {
+                    queue.put(new Frame(mat, index ++));
+                } catch (InterruptedException e) {
+                    mat.release();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            error[0] = e;
+        } catch (InterruptedException e) {
+            //The replay was stopped, nothing is waiting for more frames
+            stopped = true;
+        } finally {
+            closeSource();
+            if(!stopped){
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    //Nothing is waiting on the queue anymore
+                }
+            }
+        }
+    }
+
+    private void closeSource(){
+        try {
+            source.close();
+        } catch (IOException e) {
+            RobotLog.ww(TAG, "Closing " + source.describe() + " failed: " + e);
+        }
+    }
+
+    private static void drain(BlockingQueue<Frame> queue){
+        Frame frame;
+        while((frame = queue.poll()) != null){
+            if(frame.mat != null){
+                frame.mat.release();
+            }
+        }
+    }
+
+    private static String quote(String value){
+        return value == null ? "" : "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Reads every image in a folder, sorted by file name
+     */
+    public static Source images(File directory){
+        return new ImageSource(directory);
+    }
+
+    /**
+     * Reads every frame of a video file
+     */
+    public static Source video(String path){
+        return new VideoSource(path);
+    }
+
+    private static class Frame {
+        private final Mat mat;
+        private final int index;
+
+        private Frame(Mat mat, int index){
+            this.mat = mat;
+            this.index = index;
+        }
+    }
+
+    private static class ImageSource implements Source {
+        private final File directory;
+        private final File[] files;
+        private int next;
+
+        private ImageSource(File directory){
+            this.directory = directory;
+            File[] files = directory.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    String lower = name.toLowerCase(Locale.US);
+                    return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".bmp");
+                }
+            });
+            this.files = files == null ? new File[0] : files;
+            Arrays.sort(this.files);
+        }
+
+        @Override
+        public Mat next() throws IOException {
+            if(next == files.length){
+                return null;
+            }
+            File file = files[next ++];
+            Mat bgr = Imgcodecs.imread(file.getAbsolutePath());
+            if(bgr == null || bgr.empty()){
+                throw new IOException("Could not read " + file);
+            }
+            //Imgcodecs reads BGR, the models want RGB like the camera gives
+            Imgproc.cvtColor(bgr, bgr, Imgproc.COLOR_BGR2RGB);
+            return bgr;
+        }
+
+        @Override
+        public String describe() {
+            return files.length + " images in " + directory.getName();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class VideoSource implements Source {
+        private final String path;
+        private final VideoCapture capture;
+
+        private VideoSource(String path){
+            this.path = path;
+            this.capture = new VideoCapture(path);
+        }
+
+        @Override
+        public Mat next() throws IOException {
+            if(!capture.isOpened()){
+                throw new IOException("Could not open " + path + ", the OpenCV build may not be able to decode videos");
+            }
+            Mat frame = new Mat();
+            if(!capture.read(frame) || frame.empty()){
+                frame.release();
+                return null;
+            }
+            Imgproc.cvtColor(frame, frame, Imgproc.COLOR_BGR2RGB);
+            return frame;
+        }
+
+        @Override
+        public String describe() {
+            return new File(path).getName();
+        }
+
+        @Override
+        public void close() {
+            capture.release();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.outoftheboxrobotics.tensorflowapi.ImageClassification;
+
+import org.outoftheboxrobotics.tensorflowapi.ImagePreprocessor;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Everything that belongs to one interpreter in a TensorImageClassifier's pool
+ *
+ * Only one thread uses a context at a time, so none of this needs to be synchronized
+ */
+class ClassifierContext {
+    final Interpreter interpreter;
+    final ImagePreprocessor preprocessor;
+    final ByteBuffer output;
+    final TopKSelector topK;
+    private final DataType outputType;
+    //Integer scores are scale * (value - zeroPoint)
+    private final float outputScale;
+    private final int outputZeroPoint;
+
+    //Batch state, the interpreter input is resized to [batchSize, rows, cols, 3] when running a batch
+    private final int[] inputShape;
+    private final DataType inputType;
+    private final Tensor.QuantizationParams inputQuantization;
+    private final float mean, std;
+    private final int imageBytes, outputImageBytes;
+    private int batchSize;
+    private ByteBuffer batchInput, batchOutput;
+    //TFLite wants buffers that are exactly the size of the tensor, so each batch size gets its own view of the shared buffers
+    private ByteBuffer[] batchInputViews = new ByteBuffer[0], batchOutputViews = new ByteBuffer[0];
+    private ImagePreprocessor[] batchPreprocessors = new ImagePreprocessor[0];
+
+    ClassifierContext(Interpreter interpreter, float mean, float std, int numRecognitions){
+        this.interpreter = interpreter;
+
+        Tensor inputTensor = interpreter.getInputTensor(0);
+        DataType imageDataType = inputTensor.dataType();
+
+        int probabilityTensorIndex = 0;
+        DataType probabilityDataType = interpreter.getOutputTensor(probabilityTensorIndex).dataType();
+
+        this.preprocessor = new ImagePreprocessor(inputTensor, mean, std);
+
+        this.output = ByteBuffer.allocateDirect(interpreter.getOutputTensor(probabilityTensorIndex).numBytes()).order(ByteOrder.nativeOrder());
+        this.outputType = probabilityDataType;
+        Tensor.QuantizationParams outputQuantization = interpreter.getOutputTensor(probabilityTensorIndex).quantizationParams();
+        if(outputQuantization != null && outputQuantization.getScale() != 0){
+            this.outputScale = outputQuantization.getScale();
+            this.outputZeroPoint = outputQuantization.getZeroPoint();
+        }else{
+            //No quantization info, UINT8 scores are usually 0-255
+            this.outputScale = 1 / 255f;
+            this.outputZeroPoint = probabilityDataType == DataType.INT8 ? -128 : 0;
+        }
+        this.topK = new TopKSelector(numRecognitions);
+
+        this.inputShape = inputTensor.shape();
+        this.inputType = imageDataType;
+        this.inputQuantization = inputTensor.quantizationParams();
+        this.mean = mean;
+        this.std = std;
+        this.batchSize = inputShape[0];
+        this.imageBytes = inputTensor.numBytes() / batchSize;
+        this.outputImageBytes = interpreter.getOutputTensor(0).numBytes() / batchSize;
+    }
+
+    /**
+     * Runs the model on an input filled by this context's preprocessor
+     * @return the output scores, [1, numLabels]
+     */
+    ByteBuffer invoke(ByteBuffer input){
+        //A batch may have resized the interpreter
+        setBatchSize(1);
+
+        input.rewind();
+        output.rewind();
+        interpreter.run(input, output);
+        output.rewind();
+        return output;
+    }
+
+    /**
+     * @return true if the model's batch dimension can be resized
+     */
+    boolean supportsBatching(){
+        int[] signature = interpreter.getInputTensor(0).shapeSignature();
+        return signature.length > 0 && signature[0] == -1;
+    }
+
+    /**
+     * Resizes the interpreter to run batchSize images at once
+     * This only reallocates when the batch size changes
+     */
+    void setBatchSize(int batchSize){
+        if(this.batchSize == batchSize){
+            return;
+        }
+        interpreter.resizeInput(0, new int[]{batchSize, inputShape[1], inputShape[2], inputShape[3]});
+        interpreter.allocateTensors();
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets a preprocessor for one image of a batch, all of them write into the same contiguous input buffer
+     */
+    ImagePreprocessor getBatchPreprocessor(int index, int batchSize){
+        if(batchPreprocessors.length < batchSize){
+            //Grow to fit the batch, smaller batches reuse the start of the buffers
+            for(ImagePreprocessor preprocessor : batchPreprocessors){
+                preprocessor.release();
+            }
+            batchInput = ByteBuffer.allocateDirect(imageBytes * batchSize).order(ByteOrder.nativeOrder());
+            batchOutput = ByteBuffer.allocateDirect(outputImageBytes * batchSize).order(ByteOrder.nativeOrder());
+            batchPreprocessors = new ImagePreprocessor[batchSize];
+            for(int i = 0; i < batchSize; i ++){
+                batchPreprocessors[i] = new ImagePreprocessor(inputType, inputShape[1], inputShape[2], mean, std, inputQuantization, view(batchInput, i * imageBytes, imageBytes));
+            }
+            batchInputViews = new ByteBuffer[batchSize + 1];
+            batchOutputViews = new ByteBuffer[batchSize + 1];
+        }
+        return batchPreprocessors[index];
+    }
+
+    /**
+     * Runs the batch that was written with the batch preprocessors
+     * @return the output of the whole batch, [batchSize, numLabels]
+     */
+    ByteBuffer runBatch(int batchSize){
+        if(batchInputViews[batchSize] == null){
+            batchInputViews[batchSize] = view(batchInput, 0, imageBytes * batchSize);
+            batchOutputViews[batchSize] = view(batchOutput, 0, outputImageBytes * batchSize);
+        }
+        ByteBuffer input = batchInputViews[batchSize], output = batchOutputViews[batchSize];
+        input.rewind();
+        output.rewind();
+
+        interpreter.run(input, output);
+
+        output.rewind();
+        return output;
+    }
+
+    /**
+     * @return bytes of direct buffers held by this context, batch buffers are only counted once they exist
+     */
+    long getNativeBytes(){
+        long bytes = preprocessor.getImageBytes() + output.capacity();
+        if(batchInput != null){
+            bytes += batchInput.capacity() + batchOutput.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Frees the mats of every preprocessor, the context can't run after this
+     * Direct buffers can't be freed by hand, they go with the context
+     */
+    void release(){
+        preprocessor.release();
+        for(ImagePreprocessor batchPreprocessor : batchPreprocessors){
+            batchPreprocessor.release();
+        }
+    }
+
+    /**
+     * @return number of bytes the output of one image takes
+     */
+    int getOutputImageBytes(){
+        return outputImageBytes;
+    }
+
+    /**
+     * @return true if the model outputs UINT8 or INT8 scores instead of FLOAT32
+     */
+    boolean isQuantizedOutput(){
+        return outputType != DataType.FLOAT32;
+    }
+
+    /**
+     * Reads one score, dequantized with the output tensor's own scale and zero point
+     * @param offset byte offset of the image's scores in the output
+     */
+    float readScore(ByteBuffer output, int offset, int label){
+        switch (outputType){
+            case UINT8:
+                return outputScale * ((output.get(offset + label) & 0xFF) - outputZeroPoint);
+            case INT8:
+                return outputScale * (output.get(offset + label) - outputZeroPoint);
+            default:
+                return output.getFloat(offset + label * 4);
+        }
+    }
+
+    private static ByteBuffer view(ByteBuffer buffer, int offset, int length){
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+}
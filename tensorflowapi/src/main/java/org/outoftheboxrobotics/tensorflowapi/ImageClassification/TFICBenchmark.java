@@ -0,0 +1,198 @@
+package org.outoftheboxrobotics.tensorflowapi.ImageClassification;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkRecorder;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures each stage of TensorImageClassifier.recognize separately, and compares recognizeBatch to one recognize per image
+ *
+ * Run this from an OpMode on the device you compete with, since timings on a phone or laptop will not match the Control Hub
+ * Every combination of thread count and image size is measured, using random noise frames
+ * To compare quantized and float models, run it once for each model
+ *
+ * Usage:
+ * <pre>
+ * List&lt;BenchmarkResult&gt; results = new TFICBenchmark(new TFICBuilder(hardwareMap, "model.tflite", "Label 1"))
+ *         .setThreadCounts(1, 2, 3, 4)
+ *         .setMaxBatchSize(16)
+ *         .run();
+ * </pre>
+ */
+public class TFICBenchmark {
+    private static final String TAG = "TFICBenchmark";
+
+    private final TFICBuilder builder;
+    private int[] threadCounts = {-1};
+    private Size[] imageSizes = {new Size(640, 480)};
+    private int warmupIterations = 10, iterations = 100;
+    private int maxBatchSize = 0;
+
+    public TFICBenchmark(TFICBuilder builder){
+        this.builder = builder;
+    }
+
+    /**
+     * Thread counts to test, -1 lets TFLite decide
+     * Default is -1
+     */
+    public TFICBenchmark setThreadCounts(int... threadCounts){
+        this.threadCounts = threadCounts;
+        return this;
+    }
+
+    /**
+     * Frame sizes to test, these are the camera frame sizes not the model size
+     * Default is 640x480
+     */
+    public TFICBenchmark setImageSizes(Size... imageSizes){
+        this.imageSizes = imageSizes;
+        return this;
+    }
+
+    /**
+     * Number of measured runs per configuration, and number of unmeasured runs before them
+     * Defaults are 100 and 10
+     */
+    public TFICBenchmark setIterations(int warmupIterations, int iterations){
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Also compares recognizeBatch against sequential recognize calls for every batch size from 1 to maxBatchSize
+     * Default is 0 (no batch comparison)
+     */
+    public TFICBenchmark setMaxBatchSize(int maxBatchSize){
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Runs the benchmark, this can take a while
+     * Results are also written to the RobotLog
+     * @return one result per stage per configuration
+     */
+    public List<BenchmarkResult> run() throws IOException {
+        List<BenchmarkResult> results = new ArrayList<>();
+        for(int threads : threadCounts){
+            builder.setNumThreads(threads);
+            //The same frame is run over and over, which a frame change gate would skip
+            TensorImageClassifier classifier = builder.build(false);
+
+            try {
+                for(Size imageSize : imageSizes){
+                    //EOCV frames are RGBA
+                    Mat frame = new Mat((int) imageSize.height, (int) imageSize.width, CvType.CV_8UC4);
+                    Core.randu(frame, 0, 256);
+                    String configuration = "threads=" + threads + " frame=" + (int) imageSize.width + "x" + (int) imageSize.height;
+
+                    try {
+                        runStages(classifier, frame, configuration, results);
+                        for(int batchSize = 1; batchSize <= maxBatchSize; batchSize ++){
+                            runBatch(classifier, frame, configuration, batchSize, results);
+                        }
+                    } finally {
+                        frame.release();
+                    }
+                }
+            } finally {
+                classifier.close();
+            }
+        }
+
+        for(BenchmarkResult result : results){
+            RobotLog.ii(TAG, result.toString());
+        }
+        return results;
+    }
+
+    private void runStages(TensorImageClassifier classifier, Mat frame, String configuration, List<BenchmarkResult> results){
+        ClassifierContext context = classifier.acquireContext();
+        try {
+            configuration += " input=" + context.preprocessor.getDataType();
+            BenchmarkRecorder preprocess = new BenchmarkRecorder(configuration, "preprocess", iterations);
+            BenchmarkRecorder invoke = new BenchmarkRecorder(configuration, "invoke", iterations);
+            BenchmarkRecorder postprocess = new BenchmarkRecorder(configuration, "postprocess", iterations);
+            BenchmarkRecorder total = new BenchmarkRecorder(configuration, "total", iterations);
+            BenchmarkRecorder[] recorders = {preprocess, invoke, postprocess, total};
+
+            for(int i = 0; i < warmupIterations + iterations; i ++){
+                if(i == warmupIterations){
+                    preprocess.reset();
+                    invoke.reset();
+                    postprocess.reset();
+                }
+
+                //Mat conversion (alpha removal) happens inside preprocessing, straight into the input tensor
+                preprocess.start();
+                ByteBuffer input = context.preprocessor.process(frame);
+                preprocess.stop();
+
+                invoke.start();
+                ByteBuffer output = context.invoke(input);
+                invoke.stop();
+
+                postprocess.start();
+                classifier.selectRecognitions(context, output, 0);
+                postprocess.stop();
+            }
+
+            //Total gets its own pass, the stage recorders read the allocation counter which would add to its time and garbage
+            for(int i = 0; i < warmupIterations + iterations; i ++){
+                if(i == warmupIterations){
+                    total.reset();
+                }
+                total.start();
+                ByteBuffer input = context.preprocessor.process(frame);
+                classifier.selectRecognitions(context, context.invoke(input), 0);
+                total.stop();
+            }
+
+            for(BenchmarkRecorder recorder : recorders){
+                results.add(recorder.result());
+            }
+        } finally {
+            classifier.releaseContext(context);
+        }
+    }
+
+    private void runBatch(TensorImageClassifier classifier, Mat frame, String configuration, int batchSize, List<BenchmarkResult> results){
+        List<Mat> images = new ArrayList<>(batchSize);
+        for(int i = 0; i < batchSize; i ++){
+            images.add(frame);
+        }
+
+        BenchmarkRecorder batched = new BenchmarkRecorder(configuration, "batched x" + batchSize, iterations);
+        BenchmarkRecorder sequential = new BenchmarkRecorder(configuration, "sequential x" + batchSize, iterations);
+        for(int i = 0; i < warmupIterations + iterations; i ++){
+            if(i == warmupIterations){
+                batched.reset();
+                sequential.reset();
+            }
+
+            batched.start();
+            classifier.recognizeBatch(images);
+            batched.stop();
+
+            sequential.start();
+            for(Mat image : images){
+                classifier.recognize(image);
+            }
+            sequential.stop();
+        }
+        results.add(batched.result());
+        results.add(sequential.result());
+    }
+}
@@ -3,38 +3,47 @@ package org.outoftheboxrobotics.tensorflowapi.ImageClassification;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 import com.qualcomm.robotcore.util.RobotLog;
 
-import org.tensorflow.lite.Interpreter;
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.AutoTuner;
+import org.outoftheboxrobotics.tensorflowapi.FrameChangeGate;
+import org.outoftheboxrobotics.tensorflowapi.InterpreterConfig;
 import org.tensorflow.lite.gpu.CompatibilityList;
 import org.tensorflow.lite.gpu.GpuDelegate;
 
 import java.io.IOException;
 
 public class TFICBuilder {
+    private static final int MIN_TUNING_WARMUP = 3, TUNING_ITERATIONS = 20;
+
     private final HardwareMap map;
     private final String modelName;
-    private boolean quantized;
-    private final Interpreter.Options options;
+    private final InterpreterConfig config;
     private String[] labels;
+    private int warmupIterations = 0, autoTuneMaxThreads = 0;
+    private AutoTuner.Result tuningResult;
     private int numRecognitions;
+    private float minResultConfidence = 0;
+    private double gateThreshold = -1;
+    private long gateMaxStalenessMillis;
 
     public TFICBuilder(HardwareMap map, String modelName, String... labels){
         this.map = map;
         this.modelName = modelName;
-        quantized = false;
-        options = new Interpreter.Options();
+        config = new InterpreterConfig();
         this.labels = labels;
-        options.setCancellable(true);
         this.numRecognitions = 0;
     }
 
     /**
      * Sets if the model is quantized
      *
+     * Deprecated: the input and output types and their quantization are read from the model itself, so this does nothing
+     *
      * Quantization of a model processes the model so that it uses integer inputs instead of floating point inputs
      * This speeds up inference on the model, but also (slightly) decreases accuracy
      */
+    @Deprecated
     public TFICBuilder setQuantized(boolean quantized){
-        this.quantized = quantized;
         return this;
     }
 
@@ -59,7 +68,20 @@ public class TFICBuilder {
      * The optimal number of threads may change depending on the model
      */
     public TFICBuilder setNumThreads(int numThreads){
-        this.options.setNumThreads(numThreads);
+        this.config.setNumThreads(numThreads);
+        return this;
+    }
+
+    /**
+     * Number of interpreters that are created for the model
+     *
+     * An interpreter can only run one image at a time, so a classifier shared between two camera pipelines has to take turns
+     * With a pool of interpreters, recognize() can run on several threads at once, each with its own interpreter
+     * The threads set with setNumThreads are split between the interpreters
+     * Default is 1
+     */
+    public TFICBuilder setInterpreterPoolSize(int poolSize){
+        this.config.setPoolSize(poolSize);
         return this;
     }
 
@@ -73,6 +95,17 @@ public class TFICBuilder {
         return this;
     }
 
+    /**
+     * Sets the minimum result confidence to keep a recognition
+     * Labels with a lower confidence are dropped before the top k results are picked
+     * Confidence should be a float between 0 and 1, with 1 being 100% confidence and 0 being 0%
+     * Default is 0 (every label is kept)
+     */
+    public TFICBuilder setMinResultConfidence(float minResultConfidence){
+        this.minResultConfidence = minResultConfidence;
+        return this;
+    }
+
     /**
      * Sets if the XNNPack delegate is used
      *
@@ -80,7 +113,7 @@ public class TFICBuilder {
      * This has the potential to run floating point (i.e non-quantized) models faster
      */
     public TFICBuilder useXNNPack(boolean xnnPack){
-        this.options.setUseXNNPACK(xnnPack);
+        this.config.setUseXNNPack(xnnPack);
         return this;
     }
 
@@ -92,7 +125,7 @@ public class TFICBuilder {
      * At this time it is unknown if the FTC Control Hub allows for NNAPI acceleration
      */
     public TFICBuilder useNNAPI(){
-        this.options.setUseNNAPI(true);
+        this.config.setUseNNAPI(true);
         return this;
     }
 
@@ -104,7 +137,7 @@ public class TFICBuilder {
      * This is not supported on all devices but may give an advantage in inference time when used on a supported device
      */
     public TFICBuilder allowBufferHandleOutput(){
-        this.options.setAllowBufferHandleOutput(true);
+        this.config.setAllowBufferHandleOutput(true);
         return this;
     }
 
@@ -121,15 +154,102 @@ public class TFICBuilder {
 
         if(compatList.isDelegateSupportedOnThisDevice()){
             GpuDelegate.Options delegateOptions = compatList.getBestOptionsForThisDevice();
-            GpuDelegate gpuDelegate = new GpuDelegate(delegateOptions);
-            options.addDelegate(gpuDelegate);
+            config.setGpuOptions(delegateOptions);
         } else {
             RobotLog.addGlobalWarningMessage("WARNING! GPU Acceleration is NOT supported on this device. Disabling GPU Acceleration.");
         }
         return this;
     }
 
+    /**
+     * Skips the model when the frame has barely changed since the last time it ran, returning the last recognitions instead
+     *
+     * Saves a lot of CPU (and battery) while the robot sits still, like during init
+     * Only applies to recognize(Mat), the hit rate is available from getFrameChangeGate() on the classifier
+     * @param threshold average difference per pixel (0-255) that counts as a change, 2 to 5 works for most cameras
+     * @param maxStalenessMillis the model is run at least this often, even if nothing changed
+     */
+    public TFICBuilder setFrameChangeGate(double threshold, long maxStalenessMillis){
+        this.gateThreshold = threshold;
+        this.gateMaxStalenessMillis = maxStalenessMillis;
+        return this;
+    }
+
+    /**
+     * Runs noise frames through the model when it is built
+     *
+     * The first few runs of a model are much slower then the rest, because TFLite sets a lot of things up lazily
+     * Warming up moves that to build(), so it does not happen during the start of autonomous
+     * Every interpreter in the pool is warmed up
+     * Default is 0 (no warm up)
+     */
+    public TFICBuilder warmUp(int iterations){
+        this.warmupIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Picks the fastest thread count and XNNPack setting when the model is built
+     *
+     * Every thread count from 1 to maxThreads is tried with XNNPack on and off, which makes build() take a while
+     * This overrides setNumThreads and useXNNPack. The timing of every configuration is in getTuningResult() and the RobotLog
+     * Tuning only happens on the first build(), later builds reuse the chosen configuration
+     */
+    public TFICBuilder autoTune(int maxThreads){
+        this.autoTuneMaxThreads = maxThreads;
+        return this;
+    }
+
+    /**
+     * @return the timings measured by autoTune, or null if the model has not been tuned
+     */
+    public AutoTuner.Result getTuningResult(){
+        return tuningResult;
+    }
+
     public TensorImageClassifier build() throws IOException {
-        return new TensorImageClassifier(map, modelName, quantized, options, labels, numRecognitions);
+        return build(true);
+    }
+
+    /**
+     * @param gated false to leave out the frame change gate, for benchmarks that run the same frame over and over
+     */
+    TensorImageClassifier build(boolean gated) throws IOException {
+        if(autoTuneMaxThreads > 0 && tuningResult == null){
+            tuningResult = AutoTuner.tune(config, autoTuneMaxThreads, Math.max(warmupIterations, MIN_TUNING_WARMUP), TUNING_ITERATIONS, new AutoTuner.Factory() {
+                @Override
+                public AutoTuner.Candidate build() throws IOException {
+                    //Tuning runs one noise frame over and over, which a gate would skip
+                    final TensorImageClassifier classifier = create(false);
+                    return new AutoTuner.Candidate() {
+                        @Override
+                        public void run(Mat frame) {
+                            classifier.recognize(frame);
+                        }
+
+                        @Override
+                        public void close() {
+                            classifier.close();
+                        }
+                    };
+                }
+            });
+        }
+
+        TensorImageClassifier classifier = create(gated);
+        if(warmupIterations > 0){
+            try {
+                classifier.warmUp(warmupIterations);
+            } catch (RuntimeException e) {
+                classifier.close();
+                throw e;
+            }
+        }
+        return classifier;
+    }
+
+    private TensorImageClassifier create(boolean gated) throws IOException {
+        return new TensorImageClassifier(map, modelName, config, labels, numRecognitions, minResultConfidence,
+                gated && gateThreshold >= 0 ? new FrameChangeGate(gateThreshold, gateMaxStalenessMillis) : null);
     }
 }
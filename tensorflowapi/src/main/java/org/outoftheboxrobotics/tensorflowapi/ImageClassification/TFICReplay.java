@@ -0,0 +1,43 @@
+package org.outoftheboxrobotics.tensorflowapi.ImageClassification;
+
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.FrameReplay;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs a TensorImageClassifier on the frames of a FrameReplay
+ *
+ * Each frame's result is written as label confidence, one recognition after another separated by ';'
+ * Confidence is rounded to 3 places, so small float differences between runs don't show up as changes
+ * Only recognize() is timed, results are formatted afterwards
+ */
+public class TFICReplay implements FrameReplay.Handler {
+    private final TensorImageClassifier classifier;
+    private final StringBuilder builder = new StringBuilder();
+    private List<TensorImageClassifier.Recognition> recognitions = Collections.emptyList();
+
+    public TFICReplay(TensorImageClassifier classifier){
+        this.classifier = classifier;
+    }
+
+    @Override
+    public void process(Mat frame) {
+        recognitions = classifier.recognize(frame);
+    }
+
+    @Override
+    public String getResult() {
+        builder.setLength(0);
+        for(int i = 0; i < recognitions.size(); i ++){
+            TensorImageClassifier.Recognition recognition = recognitions.get(i);
+            if(i > 0){
+                builder.append(';');
+            }
+            builder.append(String.format(Locale.US, "%s %.3f", recognition.getTitle(), recognition.getConfidence()));
+        }
+        return builder.toString();
+    }
+}
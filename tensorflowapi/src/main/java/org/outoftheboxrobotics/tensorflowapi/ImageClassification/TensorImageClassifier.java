@@ -1,80 +1,91 @@
 package org.outoftheboxrobotics.tensorflowapi.ImageClassification;
 
-import android.content.res.AssetFileDescriptor;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 
 import com.qualcomm.robotcore.hardware.HardwareMap;
 
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.imgproc.Imgproc;
+import org.outoftheboxrobotics.tensorflowapi.FrameChangeGate;
+import org.outoftheboxrobotics.tensorflowapi.ImagePreprocessor;
+import org.outoftheboxrobotics.tensorflowapi.InferenceStats;
+import org.outoftheboxrobotics.tensorflowapi.InterpreterConfig;
+import org.outoftheboxrobotics.tensorflowapi.InterpreterPool;
+import org.outoftheboxrobotics.tensorflowapi.ModelRegistry;
+import org.outoftheboxrobotics.tensorflowapi.ResourceTracker;
+import org.outoftheboxrobotics.tensorflowapi.StatsSource;
 import org.outoftheboxrobotics.tensorflowapi.TensorProcessingException;
-import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.support.common.TensorProcessor;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
-import org.tensorflow.lite.support.image.ImageProcessor;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.image.ops.ResizeOp;
-import org.tensorflow.lite.support.label.TensorLabel;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
-
-import java.io.FileInputStream;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 
-public class TensorImageClassifier {
-    private final Interpreter interpreter;
-    private final boolean quantized;
-    private final int width, height;
-    private int numRecognitions;
+public class TensorImageClassifier implements StatsSource, AutoCloseable {
+    //Classifiers are trained on -1 to 1, integer models fold this into their input quantization
+    private static final float MEAN = 127.5f, STD = 127.5f;
 
-    private TensorImage inputImageBuffer;
-    private final TensorBuffer outputProbabilityBuffer;
-    private final TensorProcessor probabilityProcessor;
+    private final InterpreterPool<ClassifierContext> pool;
+    private final InferenceStats stats = new InferenceStats();
+    private final boolean supportsBatching;
+    private int numRecognitions;
+    private final float minConfidence;
 
     private final String[] labels;
-
-    protected TensorImageClassifier(HardwareMap map, String modelName, boolean quantized, Interpreter.Options options, String[] labels, int numRecognitions) throws IOException {
-        MappedByteBuffer model = loadModelFile(map.appContext.getAssets(), modelName);
-        this.quantized = quantized;
-
-        this.interpreter = new Interpreter(model, options);
-
-        this.width = this.interpreter.getInputTensor(0).shape()[1];
-        this.height = this.interpreter.getInputTensor(0).shape()[2];
-
-        this.numRecognitions = 10;
-
-        DataType imageDataType = this.interpreter.getInputTensor(0).dataType();
-
-        int probabilityTensorIndex = 0;
-        int[] probabilityShape = interpreter.getOutputTensor(probabilityTensorIndex).shape();
-        DataType probabilityDataType = interpreter.getOutputTensor(probabilityTensorIndex).dataType();
-
-        this.inputImageBuffer = new TensorImage(imageDataType);
-
-        this.outputProbabilityBuffer = TensorBuffer.createFixedSize(probabilityShape, probabilityDataType);
-
-        this.probabilityProcessor = new TensorProcessor.Builder().add(quantized ? new NormalizeOp(0, 255) : new NormalizeOp(0, 1)).build();
+    private final String modelName, optionsKey;
+    private volatile boolean closed;
+    private final FrameChangeGate gate;
+    private final ResourceTracker.Handle resourceHandle;
+    private volatile List<Recognition> lastRecognitions = Collections.emptyList();
+
+    protected TensorImageClassifier(HardwareMap map, String modelName, InterpreterConfig config, String[] labels, int numRecognitions, float minConfidence, FrameChangeGate gate) throws IOException {
+        //The registry keeps the model mapped between OpModes, so only the first classifier pays for loading it
+        ModelRegistry.acquire(map.appContext.getAssets(), modelName);
+        this.modelName = modelName;
+        this.optionsKey = config.getCacheKey();
 
         this.labels = labels;
         if(numRecognitions == 0){
             numRecognitions = labels.length;
         }
         this.numRecognitions = numRecognitions;
+        this.minConfidence = minConfidence;
+        this.gate = gate;
+
+        //Every interpreter in the pool reads the same mapped model
+        List<Interpreter> interpreters = new ArrayList<>(config.getPoolSize());
+        List<ClassifierContext> contexts = new ArrayList<>(config.getPoolSize());
+        try {
+            for(int i = 0; i < config.getPoolSize(); i ++){
+                Interpreter interpreter = ModelRegistry.createInterpreter(modelName, config);
+                interpreters.add(interpreter);
+                contexts.add(new ClassifierContext(interpreter, MEAN, STD, numRecognitions));
+            }
+            this.pool = new InterpreterPool<>(contexts);
+            this.supportsBatching = contexts.get(0).supportsBatching();
+
+            long nativeBytes = 0;
+            for(ClassifierContext context : contexts){
+                nativeBytes += context.getNativeBytes();
+            }
+            this.resourceHandle = ResourceTracker.track(this, "TensorImageClassifier " + modelName, nativeBytes);
+        } catch (RuntimeException e) {
+            //close() can't be called on a classifier that was never made, so everything taken so far is given back here
+            for(ClassifierContext context : contexts){
+                context.release();
+            }
+            if(gate != null){
+                gate.release();
+            }
+            ModelRegistry.release(modelName, optionsKey, interpreters);
+            throw e;
+        }
     }
     //TODO: Validate that the Tensor Image Classifier works
 
@@ -85,6 +96,171 @@ public class TensorImageClassifier {
      */
 
     public List<Recognition> recognize(Mat in){
+        checkFrameType(in);
+
+        long start = System.nanoTime();
+
+        if(gate != null){
+            boolean changed = gate.shouldRun(in);
+            stats.record(InferenceStats.Stage.GATE, System.nanoTime() - start);
+            if(!changed){
+                //Nothing moved, the last result is still good
+                stats.recordSkipped();
+                return lastRecognitions;
+            }
+        }
+
+        //This is thread safe, each call checks out its own interpreter from the pool
+        ClassifierContext context = acquireContext();
+        try {
+            long preprocessStart = System.nanoTime();
+            ByteBuffer input = context.preprocessor.process(in);
+            long preprocessed = System.nanoTime();
+            ByteBuffer output = context.invoke(input);
+            long inferred = System.nanoTime();
+            List<Recognition> recognitions = selectRecognitions(context, output, 0);
+            long end = System.nanoTime();
+
+            stats.record(InferenceStats.Stage.PREPROCESS, preprocessed - preprocessStart);
+            stats.record(InferenceStats.Stage.INFERENCE, inferred - preprocessed);
+            stats.recordNativeInference(context.interpreter);
+            stats.record(InferenceStats.Stage.POSTPROCESS, end - inferred);
+            stats.record(InferenceStats.Stage.TOTAL, end - start);
+            stats.recordFrame();
+            if(gate != null){
+                lastRecognitions = recognitions;
+            }
+            return recognitions;
+        } catch (RuntimeException e) {
+            if(gate != null){
+                //There is no result for this frame, so the next one has to run
+                gate.reset();
+            }
+            stats.recordDropped();
+            throw e;
+        } finally {
+            pool.release(context);
+        }
+    }
+
+    /**
+     * Runs inference on an input buffer that was already filled by a preprocessor from createPreprocessor()
+     *
+     * Used to run one frame through more then one model without converting it again for each (see DetectionCascade)
+     * The frame change gate is not used, since the frame was never seen
+     * @param input a filled input buffer
+     * @return a list possible recognitions for the image
+     */
+    public List<Recognition> recognize(ByteBuffer input){
+        long start = System.nanoTime();
+        ClassifierContext context = acquireContext();
+        try {
+            ByteBuffer output = context.invoke(input);
+            long inferred = System.nanoTime();
+            List<Recognition> recognitions = selectRecognitions(context, output, 0);
+            long end = System.nanoTime();
+
+            stats.record(InferenceStats.Stage.INFERENCE, inferred - start);
+            stats.recordNativeInference(context.interpreter);
+            stats.record(InferenceStats.Stage.POSTPROCESS, end - inferred);
+            stats.record(InferenceStats.Stage.TOTAL, end - start);
+            stats.recordFrame();
+            return recognitions;
+        } catch (RuntimeException e) {
+            stats.recordDropped();
+            throw e;
+        } finally {
+            pool.release(context);
+        }
+    }
+
+    /**
+     * Creates a preprocessor with its own input buffer for this model, for recognize(ByteBuffer)
+     * The caller owns it and should release() it when done
+     */
+    public ImagePreprocessor createPreprocessor(){
+        return new ImagePreprocessor(pool.getAll().get(0).interpreter.getInputTensor(0), MEAN, STD);
+    }
+
+    @Deprecated
+    public List<Recognition> recognize(Bitmap bitmap){
+        Mat mat = new Mat();
+        try {
+            Utils.bitmapToMat(bitmap, mat);
+            return recognize(mat);
+        } finally {
+            //Released even if inference throws, so a failing OpMode doesn't leak a frame of native memory per call
+            mat.release();
+        }
+    }
+
+    /**
+     * @return number of frames that reused cached preprocessing steps, across every interpreter in the pool
+     */
+    public long getPreprocessingPlanHits(){
+        long hits = 0;
+        for(ClassifierContext context : pool.getAll()){
+            hits += context.preprocessor.getPlanHits();
+        }
+        return hits;
+    }
+
+    /**
+     * @return number of frames that needed new preprocessing steps because the frame size or type changed
+     */
+    public long getPreprocessingPlanMisses(){
+        long misses = 0;
+        for(ClassifierContext context : pool.getAll()){
+            misses += context.preprocessor.getPlanMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Gives the interpreters and model back to the ModelRegistry and frees the native memory of the classifier, it can't be used after this
+     *
+     * Waits for recognize() calls on other threads to finish, but no new ones should be started
+     * The classifier can also be used in a try-with-resources block
+     */
+    @Override
+    public synchronized void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+
+        List<Interpreter> interpreters = new ArrayList<>(pool.size());
+        for(int i = 0; i < pool.size(); i ++){
+            ClassifierContext context = pool.acquire();
+            //Cached interpreters should come back the way a new one would be
+            context.setBatchSize(1);
+            context.release();
+            interpreters.add(context.interpreter);
+        }
+        ModelRegistry.release(modelName, optionsKey, interpreters);
+        if(gate != null){
+            gate.release();
+        }
+        ResourceTracker.release(resourceHandle);
+    }
+
+    /**
+     * @return the frame change gate set on the builder, which has the hit rate, or null if there is none
+     */
+    public FrameChangeGate getFrameChangeGate(){
+        return gate;
+    }
+
+    /**
+     * @return timings of each stage over the last few seconds, and frame counts since the classifier was built
+     * Batches are timed as a whole, with every image in them counted as a frame
+     */
+    @Override
+    public InferenceStats.Snapshot getStats(){
+        return stats.snapshot();
+    }
+
+    private static void checkFrameType(Mat in){
         if(in.type() != CvType.CV_8UC3 && in.type() != CvType.CV_8UC4){
             //While some models *technically* have grayscale inputs
             //All official TFOD models require three channels of image input
@@ -94,81 +270,137 @@ public class TensorImageClassifier {
             //The specific type of mat is to prevent data casting type errors
             throw new TensorProcessingException("At this time only mats of type CV_8UC3 are supported");
         }
+    }
 
-        long timestamp = System.currentTimeMillis();
-
-        Mat in_32SC3 = new Mat();
-        if(in.channels() == 3) {
-            //Cast to integer type for processing
-            in.convertTo(in_32SC3, CvType.CV_32SC3);
-        }else{
-            //TFOD models do not process Alpha data, so we need to get rid of the fourth channel
-            //For some reason EOCV passes four channel mats even though most cameras
-            //Do not have an alpha channel ¯\_(ツ)_/¯
-            Imgproc.cvtColor(in, in_32SC3, Imgproc.COLOR_RGBA2RGB);
-            in_32SC3.convertTo(in_32SC3, CvType.CV_32SC3);
+    /**
+     * Runs inference on several images at once
+     *
+     * This is faster then calling recognize() on each image, since the model only has to be invoked once
+     * Useful for classifying several regions cropped from one frame
+     * Models with a fixed batch size can't be resized, so the images are run one at a time instead
+     * @param images the images to run the model on, each must be CV_8UC3 or CV_8UC4
+     * @return a list of possible recognitions for each image, in the same order as the images
+     */
+    public List<List<Recognition>> recognizeBatch(List<Mat> images){
+        int batchSize = images.size();
+        List<List<Recognition>> results = new ArrayList<>(batchSize);
+        if(batchSize == 0){
+            return results;
         }
 
-        int[] data = new int[(int) (in_32SC3.channels() * in_32SC3.total())];
-        in_32SC3.get(0, 0, data);
-        inputImageBuffer.load(data, new int[]{in_32SC3.width(), in_32SC3.height(), in_32SC3.channels()}); //TF Size is width, height, channels
-
-        ImageProcessor imageProcessor = new ImageProcessor.Builder()
-                .add(new ResizeOp(height, width, ResizeOp.ResizeMethod.BILINEAR))
-                .add(quantized ? new NormalizeOp(0, 1) : new NormalizeOp(127.5f, 127.5f)).build();
-        inputImageBuffer = imageProcessor.process(inputImageBuffer);
-
-        interpreter.run(inputImageBuffer.getBuffer(), outputProbabilityBuffer.getBuffer().rewind());
+        if(batchSize == 1 || !supportsBatching){
+            //Fixed batch size, fall back to one run per image
+            for(Mat in : images){
+                results.add(recognize(in));
+            }
+            return results;
+        }
 
-        Map<String, Float> labeledProbability = new TensorLabel(Arrays.asList(labels), probabilityProcessor.process(outputProbabilityBuffer)).getMapWithFloatValue();
-        PriorityQueue<Recognition> pq = new PriorityQueue<>(numRecognitions, (o1, o2) -> Float.compare(o2.getConfidence(), o1.getConfidence()));
+        long start = System.nanoTime();
+        ClassifierContext context = acquireContext();
+        try {
+            for(int i = 0; i < batchSize; i ++){
+                Mat in = images.get(i);
+                checkFrameType(in);
+                context.getBatchPreprocessor(i, batchSize).process(in);
+            }
+            long preprocessed = System.nanoTime();
+            context.setBatchSize(batchSize);
+            ByteBuffer output = context.runBatch(batchSize);
+            long inferred = System.nanoTime();
+
+            //Output is [batchSize, numLabels], split it up per image
+            for(int i = 0; i < batchSize; i ++){
+                results.add(selectRecognitions(context, output, i * context.getOutputImageBytes()));
+            }
+            long end = System.nanoTime();
+
+            stats.record(InferenceStats.Stage.PREPROCESS, preprocessed - start);
+            stats.record(InferenceStats.Stage.INFERENCE, inferred - preprocessed);
+            stats.recordNativeInference(context.interpreter);
+            stats.record(InferenceStats.Stage.POSTPROCESS, end - inferred);
+            stats.record(InferenceStats.Stage.TOTAL, end - start);
+            for(int i = 0; i < batchSize; i ++){
+                stats.recordFrame();
+            }
+            return results;
+        } catch (RuntimeException e) {
+            stats.recordDropped();
+            throw e;
+        } finally {
+            pool.release(context);
+        }
+    }
 
-        for(Map.Entry<String, Float> entry : labeledProbability.entrySet()){
-            pq.add(new Recognition("" + entry.getKey(), entry.getKey(), entry.getValue()));
+    /**
+     * Picks the top results straight out of the output buffer
+     *
+     * Only the labels that make it into the top k get a Recognition object
+     * @param output the model output
+     * @param offset byte offset of this image's scores in the output
+     */
+    List<Recognition> selectRecognitions(ClassifierContext context, ByteBuffer output, int offset){
+        TopKSelector topK = context.topK;
+        topK.clear();
+
+        int numLabels = Math.min(labels.length, context.getOutputImageBytes() / (context.isQuantizedOutput() ? 1 : 4));
+        for(int label = 0; label < numLabels; label ++){
+            float probability = context.readScore(output, offset, label);
+            if(probability >= minConfidence){
+                topK.offer(label, probability);
+            }
         }
+        topK.sortDescending();
 
-        ArrayList<Recognition> recognitions = new ArrayList<>();
-        int recogSize = Math.min(pq.size(), numRecognitions);
-        for(int i = 0; i < recogSize; i ++){
-            recognitions.add(pq.poll());
+        ArrayList<Recognition> recognitions = new ArrayList<>(topK.size());
+        for(int i = 0; i < topK.size(); i ++){
+            String label = labels[topK.indexAt(i)];
+            recognitions.add(new Recognition(label, label, topK.scoreAt(i)));
         }
         return recognitions;
     }
 
-    @Deprecated
-    public List<Recognition> recognize(Bitmap bitmap){
-        inputImageBuffer.load(bitmap);
-
-        ImageProcessor imageProcessor = new ImageProcessor.Builder()
-                .add(new ResizeOp(height, width, ResizeOp.ResizeMethod.BILINEAR))
-                .add(quantized ? new NormalizeOp(0, 1) : new NormalizeOp(127.5f, 127.5f)).build();
-        inputImageBuffer = imageProcessor.process(inputImageBuffer);
-
-        interpreter.run(inputImageBuffer.getBuffer(), outputProbabilityBuffer.getBuffer().rewind());
-
-        Map<String, Float> labeledProbability = new TensorLabel(Arrays.asList(labels), probabilityProcessor.process(outputProbabilityBuffer)).getMapWithFloatValue();
-        PriorityQueue<Recognition> pq = new PriorityQueue<>(numRecognitions, (o1, o2) -> Float.compare(o2.getConfidence(), o1.getConfidence()));
-
-        for(Map.Entry<String, Float> entry : labeledProbability.entrySet()){
-            pq.add(new Recognition("" + entry.getKey(), entry.getKey(), entry.getValue()));
+    /**
+     * Runs noise frames through every interpreter in the pool
+     *
+     * The first few runs of an interpreter are slow because of lazy tensor allocation, XNNPack weight packing and delegate setup
+     * Nothing is recorded in the stats
+     */
+    void warmUp(int iterations){
+        //EOCV frames are RGBA, and 640x480 is the most common camera size
+        Mat frame = new Mat(480, 640, CvType.CV_8UC4);
+        Core.randu(frame, 0, 256);
+        List<ClassifierContext> contexts = new ArrayList<>(pool.size());
+        try {
+            //Taking every context at once makes sure each interpreter gets warmed up
+            for(int i = 0; i < pool.size(); i ++){
+                contexts.add(acquireContext());
+            }
+            for(ClassifierContext context : contexts){
+                for(int i = 0; i < iterations; i ++){
+                    selectRecognitions(context, context.invoke(context.preprocessor.process(frame)), 0);
+                }
+            }
+        } finally {
+            for(ClassifierContext context : contexts){
+                pool.release(context);
+            }
+            frame.release();
         }
+    }
 
-        ArrayList<Recognition> recognitions = new ArrayList<>();
-        int recogSize = Math.min(pq.size(), numRecognitions);
-        for(int i = 0; i < recogSize; i ++){
-            recognitions.add(pq.poll());
+    /**
+     * Checks out an interpreter for running the stages by hand, it must be given back with releaseContext()
+     */
+    ClassifierContext acquireContext(){
+        if(closed){
+            throw new IllegalStateException("TensorImageClassifier has been closed");
         }
-        return recognitions;
+        return pool.acquire();
     }
 
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
-            throws IOException {
-        AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = fileDescriptor.getStartOffset();
-        long declaredLength = fileDescriptor.getDeclaredLength();
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    void releaseContext(ClassifierContext context){
+        pool.release(context);
     }
 
     public static class Recognition {
@@ -176,10 +408,10 @@ public class TensorImageClassifier {
 
         private final String title;
 
-        private final Float confidence;
+        private final float confidence;
 
         public Recognition(
-                final String id, final String title, final Float confidence) {
+                final String id, final String title, final float confidence) {
             this.id = id;
             this.title = title;
             this.confidence = confidence;
@@ -193,7 +425,7 @@ public class TensorImageClassifier {
             return title;
         }
 
-        public Float getConfidence() {
+        public float getConfidence() {
             return confidence;
         }
 
@@ -208,9 +440,7 @@ public class TensorImageClassifier {
                 resultString += title + " ";
             }
 
-            if (confidence != null) {
-                resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-            }
+            resultString += String.format("(%.1f%%) ", confidence * 100.0f);
 
             return resultString.trim();
         }
@@ -0,0 +1,96 @@
+package org.outoftheboxrobotics.tensorflowapi.ImageClassification;
+
+/**
+ * Keeps the k highest scoring labels out of a stream of scores
+ *
+ * Uses a fixed size min-heap of label indices, so picking the top 3 out of 1000 labels does not create any objects
+ * The lowest kept score sits at the root, and a new score only goes in if it beats it
+ */
+class TopKSelector {
+    private final int[] indices;
+    private final float[] scores;
+    private int size;
+
+    TopKSelector(int k){
+        this.indices = new int[k];
+        this.scores = new float[k];
+    }
+
+    void clear(){
+        size = 0;
+    }
+
+    void offer(int index, float score){
+        if(size < indices.length){
+            indices[size] = index;
+            scores[size] = score;
+            siftUp(size);
+            size ++;
+        }else if(size > 0 && score > scores[0]){
+            indices[0] = index;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Sorts the kept labels from highest to lowest score
+     * After this, offer() must not be called until clear()
+     */
+    void sortDescending(){
+        //Heap sort, the smallest score is moved to the end each time
+        for(int end = size - 1; end > 0; end --){
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    int size(){
+        return size;
+    }
+
+    int indexAt(int i){
+        return indices[i];
+    }
+
+    float scoreAt(int i){
+        return scores[i];
+    }
+
+    private void siftUp(int i){
+        while(i > 0){
+            int parent = (i - 1) / 2;
+            if(scores[i] >= scores[parent]){
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int heapSize){
+        while(true){
+            int left = i * 2 + 1, right = left + 1, smallest = i;
+            if(left < heapSize && scores[left] < scores[smallest]){
+                smallest = left;
+            }
+            if(right < heapSize && scores[right] < scores[smallest]){
+                smallest = right;
+            }
+            if(smallest == i){
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b){
+        int index = indices[a];
+        indices[a] = indices[b];
+        indices[b] = index;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,300 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Converts camera frames directly into the input tensor of a model
+ *
+ * The frame is resized to the model size while it is still 8 bit, then colour converted (and cast to float if needed)
+ * straight into one direct ByteBuffer that is handed to the interpreter every frame
+ * This means no int[] copies or TensorImages are allocated per frame
+ *
+ * The steps needed depend on the size and type of the incoming frame, so they are worked out once per frame format
+ * and cached as a plan. A camera always sends the same format, so after the first frame every frame is a cache hit
+ *
+ * Integer (UINT8 and INT8) models never go through floats. The normalization and the input tensor's quantization
+ * work out to one byte for each of the 256 pixel values, so that table is built once and applied with Core.LUT
+ * If the table is the same as the raw pixels (most UINT8 models), the resized pixels are copied in as they are
+ */
+public class ImagePreprocessor {
+    private static final String TAG = "ImagePreprocessor";
+
+    //A few plans are kept so callers that alternate between formats (like tiles of different sizes) don't rebuild every frame
+    private static final int MAX_PLANS = 4;
+
+    private final DataType dataType;
+    private final int rows, cols;
+    private final float mean, std;
+    private final Size size;
+
+    private final ByteBuffer buffer;
+    private final Mat tensorMat; //Wraps buffer, anything written here goes straight to the interpreter
+    private final Mat lut; //Pixel value to quantized value for integer models, null if pixels go in as they are
+    private final byte[] table; //What lut holds, kept to compare preprocessors
+
+    private final Plan[] plans = new Plan[MAX_PLANS];
+    private int nextEvict;
+    private long planHits, planMisses;
+
+    /**
+     * @param inputTensor the input tensor this preprocessor fills
+     * @param mean value subtracted from each pixel, for integer models this is combined with the input quantization
+     * @param std value each pixel is divided by, for integer models this is combined with the input quantization
+     */
+    public ImagePreprocessor(Tensor inputTensor, float mean, float std){
+        //Input tensors are [batch, rows, cols, channels]
+        this(inputTensor.dataType(), inputTensor.shape()[1], inputTensor.shape()[2], mean, std, inputTensor.quantizationParams(),
+                ByteBuffer.allocateDirect(inputTensor.numBytes() / inputTensor.shape()[0]).order(ByteOrder.nativeOrder()));
+    }
+
+    /**
+     * Creates a preprocessor that writes one image into an existing buffer, such as one image of a batch
+     * Integer models get the raw pixels, use the constructor with quantization to normalize them
+     * @param buffer a direct buffer with room for exactly one image
+     */
+    public ImagePreprocessor(DataType dataType, int rows, int cols, float mean, float std, ByteBuffer buffer){
+        this(dataType, rows, cols, mean, std, null, buffer);
+    }
+
+    /**
+     * Creates a preprocessor that writes one image into an existing buffer, such as one image of a batch
+     * @param quantization the input tensor's quantization, or null to give integer models the raw pixels
+     * @param buffer a direct buffer with room for exactly one image
+     */
+    public ImagePreprocessor(DataType dataType, int rows, int cols, float mean, float std, Tensor.QuantizationParams quantization, ByteBuffer buffer){
+        this.dataType = dataType;
+        if(dataType != DataType.UINT8 && dataType != DataType.INT8 && dataType != DataType.FLOAT32){
+            throw new TensorProcessingException("Unsupported input tensor type " + dataType + ", only UINT8, INT8 and FLOAT32 models are supported");
+        }
+        if(!buffer.isDirect()){
+            throw new IllegalArgumentException("ImagePreprocessor needs a direct buffer");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.mean = mean;
+        this.std = std;
+        this.size = new Size(cols, rows);
+
+        this.buffer = buffer;
+        //OpenCV can write into a direct buffer without copying, so we wrap the tensor memory in a mat
+        this.tensorMat = new Mat(rows, cols, dataType == DataType.UINT8 ? CvType.CV_8UC3 : dataType == DataType.INT8 ? CvType.CV_8SC3 : CvType.CV_32FC3, buffer);
+        this.table = dataType == DataType.FLOAT32 ? null : createTable(dataType, mean, std, quantization);
+        if(table != null){
+            this.lut = new Mat(1, 256, dataType == DataType.INT8 ? CvType.CV_8SC1 : CvType.CV_8UC1);
+            lut.put(0, 0, table);
+        }else{
+            this.lut = null;
+        }
+    }
+
+    /**
+     * Builds the table from pixel value to input value for an integer model
+     *
+     * The model wants real / scale + zeroPoint, where real is the normalized pixel (pixel - mean) / std
+     * @return null if the table is within one step of the raw pixels for a UINT8 model, so they can be copied as they are
+     */
+    private static byte[] createTable(DataType dataType, float mean, float std, Tensor.QuantizationParams quantization){
+        //A raw pixel is p for UINT8 and p - 128 for INT8
+        int offset = dataType == DataType.INT8 ? -128 : 0;
+        byte[] table = new byte[256];
+        boolean raw = true;
+
+        if(quantization != null && quantization.getScale() != 0 && std != 0){
+            int clipped = 0;
+            for(int p = 0; p < 256; p ++){
+                float real = (p - mean) / std;
+                int q = Math.round(real / quantization.getScale()) + quantization.getZeroPoint();
+                if(q < offset || q > offset + 255){
+                    clipped ++;
+                    q = Math.max(offset, Math.min(offset + 255, q));
+                }
+                table[p] = (byte) q;
+                //Off by one is below camera noise, and is usually just 127.5 vs 128 rounding
+                raw &= Math.abs(q - (p + offset)) <= 1;
+            }
+            if(clipped > 64){
+                //A quarter of all pixel values would clip, the normalization was clearly not made for this model
+                RobotLog.ww(TAG, "Normalization (" + mean + ", " + std + ") does not fit the input range of the model, using raw pixels");
+                raw = true;
+            }
+        }
+        if(raw && dataType == DataType.UINT8){
+            return null;
+        }
+        if(raw){
+            for(int p = 0; p < 256; p ++){
+                table[p] = (byte) (p + offset);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return number of bytes one image takes in the input tensor
+     */
+    public int getImageBytes(){
+        return buffer.capacity();
+    }
+
+    /**
+     * Writes a CV_8UC3 or CV_8UC4 mat into the input buffer
+     * @param in the frame to process, it is not modified
+     * @return the filled input buffer, rewound and ready to be passed to the interpreter
+     */
+    public ByteBuffer process(Mat in){
+        planFor(in).run(in);
+        buffer.rewind();
+        return buffer;
+    }
+
+    private Plan planFor(Mat in){
+        int inRows = in.rows(), inCols = in.cols(), inType = in.type();
+        for(Plan plan : plans){
+            if(plan != null && plan.matches(inRows, inCols, inType)){
+                planHits ++;
+                return plan;
+            }
+        }
+
+        //New frame format, work out the steps for it
+        planMisses ++;
+        Plan plan = new Plan(inRows, inCols, inType, in.channels());
+        if(plans[nextEvict] != null){
+            plans[nextEvict].release();
+        }
+        plans[nextEvict] = plan;
+        nextEvict = (nextEvict + 1) % MAX_PLANS;
+        return plan;
+    }
+
+    /**
+     * @return true if this writes the same bytes as other for every frame, so one filled buffer can be given to both models
+     */
+    public boolean producesSameInput(ImagePreprocessor other){
+        if(dataType != other.dataType || rows != other.rows || cols != other.cols){
+            return false;
+        }
+        if(dataType == DataType.FLOAT32){
+            return mean == other.mean && std == other.std;
+        }
+        return Arrays.equals(table, other.table);
+    }
+
+    public ByteBuffer getBuffer(){
+        return buffer;
+    }
+
+    public DataType getDataType(){
+        return dataType;
+    }
+
+    public int getRows(){
+        return rows;
+    }
+
+    public int getCols(){
+        return cols;
+    }
+
+    /**
+     * @return number of frames that reused a cached plan
+     */
+    public long getPlanHits(){
+        return planHits;
+    }
+
+    /**
+     * @return number of frames that needed a new plan, which happens when the frame size or type changes
+     */
+    public long getPlanMisses(){
+        return planMisses;
+    }
+
+    /**
+     * Releases the scratch mats held by this preprocessor
+     */
+    public void release(){
+        for(int i = 0; i < plans.length; i ++){
+            if(plans[i] != null){
+                plans[i].release();
+                plans[i] = null;
+            }
+        }
+        tensorMat.release();
+        if(lut != null){
+            lut.release();
+        }
+    }
+
+    /**
+     * The steps to turn one frame format into the input tensor, along with the scratch mats those steps use
+     */
+    private class Plan {
+        private final int inRows, inCols, inType;
+        private final boolean dropAlpha;
+        private final Mat resized, rgb;
+
+        private Plan(int inRows, int inCols, int inType, int channels){
+            this.inRows = inRows;
+            this.inCols = inCols;
+            this.inType = inType;
+            //TFOD models do not process Alpha data, so we need to get rid of the fourth channel
+            //For some reason EOCV passes four channel mats even though most cameras
+            //Do not have an alpha channel
+            this.dropAlpha = channels == 4;
+            //Scratch mats are model sized, since everything is resized first
+            //Only raw UINT8 can be written into the tensor by resize or cvtColor, everything else needs one more step
+            boolean rawPixels = dataType == DataType.UINT8 && lut == null;
+            this.resized = rawPixels && !dropAlpha ? null : new Mat(rows, cols, inType);
+            this.rgb = !rawPixels && dropAlpha ? new Mat(rows, cols, CvType.CV_8UC3) : null;
+        }
+
+        private boolean matches(int inRows, int inCols, int inType){
+            return this.inRows == inRows && this.inCols == inCols && this.inType == inType;
+        }
+
+        private void run(Mat in){
+            if(resized == null){
+                //Best case, OpenCV resizes directly into the tensor
+                Imgproc.resize(in, tensorMat, size, 0, 0, Imgproc.INTER_LINEAR);
+                return;
+            }
+
+            //Resize first so every later step only touches model sized data
+            Imgproc.resize(in, resized, size, 0, 0, Imgproc.INTER_LINEAR);
+            Mat rgbMat = resized;
+            if(dropAlpha){
+                rgbMat = rgb == null ? tensorMat : rgb;
+                Imgproc.cvtColor(resized, rgbMat, Imgproc.COLOR_RGBA2RGB);
+            }
+            if(dataType == DataType.FLOAT32){
+                //(pixel - mean) / std, done during the cast to float
+                rgbMat.convertTo(tensorMat, CvType.CV_32FC3, 1.0 / std, -mean / std);
+            }else if(lut != null){
+                //Normalization and quantization in one table lookup per byte
+                Core.LUT(rgbMat, lut, tensorMat);
+            }
+        }
+
+        private void release(){
+            if(resized != null){
+                resized.release();
+            }
+            if(rgb != null){
+                rgb.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live timings of every stage of a detector or classifier, along with frame and drop counts
+ *
+ * Recording never allocates or locks, so it is always on. Use snapshot() (or getStats() on the model) to read it
+ */
+public class InferenceStats {
+    /**
+     * How long the histograms remember timings for, snapshots cover between one and two of these
+     */
+    public static final long WINDOW_MILLIS = 10000;
+
+    public enum Stage {
+        /** Checking if the frame changed enough to run the model, only with a frame change gate. For a DetectionCascade, running the classifier */
+        GATE,
+        /** Resizing and converting the frame into the input tensor */
+        PREPROCESS,
+        /** The whole interpreter call, as seen from Java */
+        INFERENCE,
+        /** Time TFLite reports it spent in native code, the difference to INFERENCE is JNI and buffer overhead */
+        NATIVE_INFERENCE,
+        /** Reading the output tensors into results */
+        POSTPROCESS,
+        /** Drawing results on the frame */
+        DRAW,
+        /** Everything above, from the frame being passed in to results being returned */
+        TOTAL
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLong frames = new AtomicLong(), droppedFrames = new AtomicLong(), skippedFrames = new AtomicLong();
+    private final InferenceStats parent;
+
+    public InferenceStats(){
+        this(null);
+    }
+
+    /**
+     * Stats that also record everything into parent, so something made of several models (like the levels of an
+     * adaptive detector) can have combined stats while each model keeps its own
+     * @param parent stats to also record into, or null
+     */
+    public InferenceStats(InferenceStats parent){
+        this.parent = parent;
+        for(int i = 0; i < histograms.length; i ++){
+            histograms[i] = new LatencyHistogram(WINDOW_MILLIS);
+        }
+    }
+
+    public void record(Stage stage, long nanos){
+        histograms[stage.ordinal()].record(nanos);
+        if(parent != null){
+            parent.record(stage, nanos);
+        }
+    }
+
+    /**
+     * Records how long the last run of this interpreter took in native code
+     * Does nothing if the interpreter has not run yet
+     */
+    public void recordNativeInference(Interpreter interpreter){
+        Long nanos = interpreter.getLastNativeInferenceDurationNanoseconds();
+        if(nanos != null){
+            record(Stage.NATIVE_INFERENCE, nanos);
+        }
+    }
+
+    /**
+     * Counts a frame that produced results
+     */
+    public void recordFrame(){
+        frames.incrementAndGet();
+        if(parent != null){
+            parent.recordFrame();
+        }
+    }
+
+    /**
+     * Counts a frame that never produced results, because it failed or was replaced by a newer one
+     */
+    public void recordDropped(){
+        droppedFrames.incrementAndGet();
+        if(parent != null){
+            parent.recordDropped();
+        }
+    }
+
+    /**
+     * Counts a frame that reused the last result because it had not changed, or that a cascade's classifier stopped
+     */
+    public void recordSkipped(){
+        skippedFrames.incrementAndGet();
+        if(parent != null){
+            parent.recordSkipped();
+        }
+    }
+
+    /**
+     * @return number of frames that reused the last result, without taking a snapshot
+     */
+    public long getSkippedFrames(){
+        return skippedFrames.get();
+    }
+
+    public Snapshot snapshot(){
+        LatencyHistogram.Snapshot[] stages = new LatencyHistogram.Snapshot[STAGES.length];
+        for(int i = 0; i < stages.length; i ++){
+            stages[i] = histograms[i].snapshot();
+        }
+        return new Snapshot(stages, frames.get(), droppedFrames.get(), skippedFrames.get());
+    }
+
+    public static class Snapshot {
+        private final LatencyHistogram.Snapshot[] stages;
+        private final long frames, droppedFrames, skippedFrames;
+
+        private Snapshot(LatencyHistogram.Snapshot[] stages, long frames, long droppedFrames, long skippedFrames){
+            this.stages = stages;
+            this.frames = frames;
+            this.droppedFrames = droppedFrames;
+            this.skippedFrames = skippedFrames;
+        }
+
+        /**
+         * @return timings of a stage over the last window, stages the model does not run have a count of 0
+         */
+        public LatencyHistogram.Snapshot getStage(Stage stage) {
+            return stages[stage.ordinal()];
+        }
+
+        /**
+         * @return number of frames that produced results since the model was built
+         */
+        public long getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return number of frames that failed or were dropped since the model was built
+         */
+        public long getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        /**
+         * @return number of frames that reused the last result because the scene had not changed
+         */
+        public long getSkippedFrames() {
+            return skippedFrames;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "frames=%d dropped=%d skipped=%d", frames, droppedFrames, skippedFrames));
+            for(Stage stage : STAGES){
+                LatencyHistogram.Snapshot snapshot = stages[stage.ordinal()];
+                if(snapshot.getCount() > 0){
+                    builder.append('\n').append(stage.name().toLowerCase(Locale.US)).append(": ").append(snapshot);
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.gpu.GpuDelegate;
+
+import java.util.List;
+
+/**
+ * Interpreter settings collected by the builders
+ *
+ * Interpreter.Options can't be shared between interpreters once a delegate is added, so the settings are kept here
+ * and a fresh set of options is created for every interpreter
+ */
+public class InterpreterConfig {
+    private int numThreads = -1;
+    private Boolean useXNNPack, allowBufferHandleOutput;
+    private boolean useNNAPI;
+    private GpuDelegate.Options gpuOptions;
+    private int poolSize = 1;
+
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+
+    public void setUseXNNPack(boolean useXNNPack){
+        this.useXNNPack = useXNNPack;
+    }
+
+    public void setUseNNAPI(boolean useNNAPI){
+        this.useNNAPI = useNNAPI;
+    }
+
+    public void setAllowBufferHandleOutput(boolean allow){
+        this.allowBufferHandleOutput = allow;
+    }
+
+    /**
+     * @param gpuOptions options for the GPU delegate, or null to not use the GPU
+     */
+    public void setGpuOptions(GpuDelegate.Options gpuOptions){
+        this.gpuOptions = gpuOptions;
+    }
+
+    public void setPoolSize(int poolSize){
+        if(poolSize < 1){
+            throw new IllegalArgumentException("Interpreter pool size must be at least 1, got " + poolSize);
+        }
+        this.poolSize = poolSize;
+    }
+
+    public int getNumThreads(){
+        return numThreads;
+    }
+
+    /**
+     * @return the XNNPack setting, or null if it was never set and TFLite decides
+     */
+    Boolean getUseXNNPack(){
+        return useXNNPack;
+    }
+
+    /**
+     * Puts back a setting from getUseXNNPack(), including null
+     */
+    void restoreUseXNNPack(Boolean useXNNPack){
+        this.useXNNPack = useXNNPack;
+    }
+
+    public int getPoolSize(){
+        return poolSize;
+    }
+
+    /**
+     * Number of threads each interpreter in the pool gets
+     * The threads set with setNumThreads are split between all interpreters, with at least one each
+     */
+    public int getThreadsPerInterpreter(){
+        if(numThreads <= 0){
+            //Let TFLite decide
+            return numThreads;
+        }
+        return Math.max(1, numThreads / poolSize);
+    }
+
+    /**
+     * Describes every setting that changes how an interpreter is created, interpreters with the same key can be swapped for each other
+     * The pool size is left out, since it only changes how many interpreters there are
+     */
+    public String getCacheKey(){
+        return "threads=" + getThreadsPerInterpreter()
+                + " xnnpack=" + useXNNPack
+                + " nnapi=" + useNNAPI
+                + " bufferHandle=" + allowBufferHandleOutput
+                //GPU options can't be compared, so only interpreters made with the same options object match
+                + " gpu=" + (gpuOptions == null ? "none" : Integer.toHexString(System.identityHashCode(gpuOptions)));
+    }
+
+    /**
+     * Creates the options for one interpreter in the pool
+     * @param delegates any delegates created for the options are added here, they must be closed after the interpreter is
+     */
+    public Interpreter.Options createOptions(List<GpuDelegate> delegates){
+        Interpreter.Options options = new Interpreter.Options();
+        options.setCancellable(true);
+        options.setNumThreads(getThreadsPerInterpreter());
+        if(useXNNPack != null){
+            options.setUseXNNPACK(useXNNPack);
+        }
+        if(useNNAPI){
+            options.setUseNNAPI(true);
+        }
+        if(allowBufferHandleOutput != null){
+            options.setAllowBufferHandleOutput(allowBufferHandleOutput);
+        }
+        if(gpuOptions != null){
+            //Each interpreter needs its own delegate
+            GpuDelegate delegate = new GpuDelegate(gpuOptions);
+            delegates.add(delegate);
+            options.addDelegate(delegate);
+        }
+        return options;
+    }
+}
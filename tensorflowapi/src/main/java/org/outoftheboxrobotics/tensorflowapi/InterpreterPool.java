@@ -0,0 +1,50 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A fixed set of interpreters (and whatever per-interpreter state goes with them) that threads check out one at a time
+ *
+ * Interpreters are not thread safe, so every thread running a model takes one from the pool, uses it, and gives it back
+ * If all of them are in use, acquire() waits for one to be released
+ */
+public class InterpreterPool<T> {
+    private final List<T> all;
+    private final ArrayBlockingQueue<T> free;
+
+    public InterpreterPool(List<T> items){
+        this.all = Collections.unmodifiableList(new ArrayList<>(items));
+        this.free = new ArrayBlockingQueue<>(items.size(), false, items);
+    }
+
+    /**
+     * Takes a free item from the pool, waiting if none are available
+     * Every call must be matched by a call to release()
+     */
+    public T acquire(){
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TensorProcessingException("Interrupted while waiting for a free interpreter");
+        }
+    }
+
+    public void release(T item){
+        free.offer(item);
+    }
+
+    public int size(){
+        return all.size();
+    }
+
+    /**
+     * @return every item in the pool, whether it is in use or not
+     */
+    public List<T> getAll(){
+        return all;
+    }
+}
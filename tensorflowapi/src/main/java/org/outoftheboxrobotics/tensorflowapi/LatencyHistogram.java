@@ -0,0 +1,173 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations covering a rolling time window
+ *
+ * Durations go into log-linear buckets (every power of two is split into 8 buckets, so each bucket is within 12.5%),
+ * like an HDR histogram. Recording is a couple of atomic adds and never allocates, so it is safe on the inference thread
+ *
+ * Two windows are kept, when the current one gets older then the window length, the older one is cleared and takes over
+ * Snapshots merge both, so they cover between one and two window lengths of history
+ * A window that started more then two window lengths ago is left out, so after a pause snapshots are empty instead of showing old frames
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long windowNanos;
+    private final AtomicLongArray[] counts = {new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS)};
+    private final AtomicLongArray sums = new AtomicLongArray(2), totals = new AtomicLongArray(2);
+    //When each window started
+    private final AtomicLongArray starts = new AtomicLongArray(2);
+    private volatile int current;
+
+    /**
+     * @param windowMillis how long each window lasts
+     */
+    public LatencyHistogram(long windowMillis){
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        long now = System.nanoTime();
+        starts.set(0, now);
+        starts.set(1, now);
+    }
+
+    public void record(long nanos){
+        if(nanos < 0){
+            return;
+        }
+        long now = System.nanoTime();
+        int window = current;
+        long start = starts.get(window);
+        if(now - start > windowNanos){
+            int next = 1 - window;
+            long nextStart = starts.get(next);
+            //Only one thread wins the rotation, the next window is always the older one until it has been taken over
+            //A value recorded into a window while it is cleared may be lost, which is fine for stats
+            if(nextStart <= start && starts.compareAndSet(next, nextStart, now)){
+                clear(next);
+                if(now - start > 2 * windowNanos){
+                    //Nothing was recorded for more then a window, so the current window is just as stale
+                    clear(window);
+                }
+                current = next;
+            }
+            window = current;
+        }
+
+        counts[window].incrementAndGet(bucketFor(nanos));
+        sums.addAndGet(window, nanos);
+        totals.incrementAndGet(window);
+    }
+
+    public Snapshot snapshot(){
+        long now = System.nanoTime();
+        long[] merged = new long[BUCKETS];
+        long count = 0, sum = 0;
+        for(int window = 0; window < 2; window ++){
+            //Rotation only happens in record(), so without this an idle histogram would report its last frames forever
+            if(now - starts.get(window) > 2 * windowNanos){
+                continue;
+            }
+            for(int i = 0; i < BUCKETS; i ++){
+                merged[i] += counts[window].get(i);
+            }
+            count += totals.get(window);
+            sum += sums.get(window);
+        }
+        return new Snapshot(count, count == 0 ? 0 : sum / count,
+                percentile(merged, count, 0.5), percentile(merged, count, 0.9), percentile(merged, count, 0.99), percentile(merged, count, 1));
+    }
+
+    private void clear(int window){
+        for(int i = 0; i < BUCKETS; i ++){
+            counts[window].set(i, 0);
+        }
+        sums.set(window, 0);
+        totals.set(window, 0);
+    }
+
+    private static long percentile(long[] buckets, long count, double percentile){
+        if(count == 0){
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i ++){
+            seen += buckets[i];
+            if(seen >= target){
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private static int bucketFor(long value){
+        if(value < SUB_BUCKETS){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Durations recorded in the window, all in nanoseconds
+     * Percentiles are the upper edge of the bucket they fall in
+     */
+    public static class Snapshot {
+        private final long count, meanNanos, p50Nanos, p90Nanos, p99Nanos, maxNanos;
+
+        private Snapshot(long count, long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos){
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                    count, meanNanos / 1e6, p50Nanos / 1e6, p90Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.gpu.GpuDelegate;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps models loaded between OpModes
+ *
+ * The robot controller app stays running between OpModes, so a model mapped by one OpMode can be used by the next one
+ * without opening the asset again. Detectors and classifiers get their model from here and give it back when closed
+ *
+ * Models stay mapped after the last user closes them, until evict() or evictAll() is called
+ * With setCacheInterpreters(true), closed models also keep their interpreters, so the next detector with the same settings
+ * skips creating interpreters (and setting up delegates) too. Those interpreters have already run, so they are warmed up
+ */
+public final class ModelRegistry {
+    private static final String TAG = "ModelRegistry";
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+    //Delegates are not closed by Interpreter.close(), so they are kept with the interpreter they were made for
+    private static final Map<Interpreter, List<GpuDelegate>> delegates = new IdentityHashMap<>();
+    private static boolean cacheInterpreters = false;
+    private static long modelHits, modelMisses, interpreterHits, interpreterMisses;
+
+    private ModelRegistry(){}
+
+    /**
+     * Sets if interpreters are kept after the detector or classifier using them is closed
+     *
+     * Cached interpreters keep their native memory (and GPU delegate) until the model is evicted
+     * Default is false
+     */
+    public static synchronized void setCacheInterpreters(boolean cacheInterpreters){
+        ModelRegistry.cacheInterpreters = cacheInterpreters;
+        if(!cacheInterpreters){
+            for(Entry entry : entries.values()){
+                entry.closeIdleInterpreters();
+            }
+        }
+    }
+
+    /**
+     * Gets a model, mapping it from the assets if it is not loaded yet
+     * Every call must be matched by a call to release()
+     */
+    public static synchronized MappedByteBuffer acquire(AssetManager assets, String modelName) throws IOException {
+        Entry entry = entries.get(modelName);
+        if(entry == null){
+            modelMisses ++;
+            long start = System.nanoTime();
+            MappedByteBuffer model = loadModelFile(assets, modelName);
+            entry = new Entry(model, System.nanoTime() - start);
+            entries.put(modelName, entry);
+            RobotLog.ii(TAG, "Loaded " + modelName + " in " + entry.loadNanos / 1000000 + "ms");
+        }else{
+            modelHits ++;
+        }
+        entry.references ++;
+        return entry.model;
+    }
+
+    /**
+     * Gets an interpreter for an acquired model, reusing a cached one with the same settings if there is one
+     */
+    public static Interpreter createInterpreter(String modelName, InterpreterConfig config){
+        return createInterpreter(modelName, config, null);
+    }
+
+    /**
+     * Gets an interpreter with its input resized, for models that can run at more then one input size
+     *
+     * Resized interpreters are cached apart from the others, release them with the key from getCacheKey(config, inputShape)
+     * @param inputShape the new shape of input 0, like {1, 192, 192, 3}, or null to keep the model's
+     * @throws TensorProcessingException if the model can't run at that size
+     */
+    public static Interpreter createInterpreter(String modelName, InterpreterConfig config, int[] inputShape){
+        String key = getCacheKey(config, inputShape);
+        MappedByteBuffer model;
+        synchronized (ModelRegistry.class){
+            Entry entry = getAcquired(modelName);
+            ArrayDeque<Interpreter> idle = entry.idleInterpreters.get(key);
+            if(idle != null && !idle.isEmpty()){
+                interpreterHits ++;
+                return idle.poll();
+            }
+            interpreterMisses ++;
+            model = entry.model;
+        }
+        //Creating an interpreter is slow, so it is done outside the lock
+        List<GpuDelegate> created = new ArrayList<>();
+        Interpreter interpreter;
+        try {
+            interpreter = new Interpreter(model, config.createOptions(created));
+        } catch (RuntimeException e) {
+            closeDelegates(created);
+            throw e;
+        }
+        if(!created.isEmpty()){
+            synchronized (ModelRegistry.class){
+                delegates.put(interpreter, created);
+            }
+        }
+        if(inputShape != null){
+            try {
+                interpreter.resizeInput(0, inputShape);
+                //Allocating now means a model that can't take the size fails here, instead of on its first frame
+                interpreter.allocateTensors();
+            } catch (RuntimeException e) {
+                synchronized (ModelRegistry.class){
+                    close(interpreter);
+                }
+                throw new TensorProcessingException("Model " + modelName + " can't run with an input of " + Arrays.toString(inputShape) + ": " + e.getMessage());
+            }
+        }
+        return interpreter;
+    }
+
+    /**
+     * The key to release interpreters from createInterpreter(modelName, config, inputShape) with
+     */
+    public static String getCacheKey(InterpreterConfig config, int[] inputShape){
+        return inputShape == null ? config.getCacheKey() : config.getCacheKey() + " input=" + Arrays.toString(inputShape);
+    }
+
+    /**
+     * Gives a model back, along with the interpreters created for it
+     * @param optionsKey the InterpreterConfig cache key the interpreters were created with
+     */
+    public static synchronized void release(String modelName, String optionsKey, List<Interpreter> interpreters){
+        Entry entry = getAcquired(modelName);
+        for(Interpreter interpreter : interpreters){
+            if(cacheInterpreters){
+                ArrayDeque<Interpreter> idle = entry.idleInterpreters.get(optionsKey);
+                if(idle == null){
+                    idle = new ArrayDeque<>();
+                    entry.idleInterpreters.put(optionsKey, idle);
+                }
+                idle.add(interpreter);
+            }else{
+                close(interpreter);
+            }
+        }
+        entry.references --;
+    }
+
+    /**
+     * Unloads a model and closes its cached interpreters, if nothing is using it
+     * @return true if the model was unloaded
+     */
+    public static synchronized boolean evict(String modelName){
+        Entry entry = entries.get(modelName);
+        if(entry == null || entry.references > 0){
+            return false;
+        }
+        entry.closeIdleInterpreters();
+        entries.remove(modelName);
+        return true;
+    }
+
+    /**
+     * Unloads every model that is not in use
+     */
+    public static synchronized void evictAll(){
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(iterator.hasNext()){
+            Entry entry = iterator.next();
+            if(entry.references == 0){
+                entry.closeIdleInterpreters();
+                iterator.remove();
+            }
+        }
+    }
+
+    public static synchronized boolean isLoaded(String modelName){
+        return entries.containsKey(modelName);
+    }
+
+    /**
+     * @return how long mapping the model took, or -1 if it is not loaded
+     */
+    public static synchronized long getLoadNanos(String modelName){
+        Entry entry = entries.get(modelName);
+        return entry == null ? -1 : entry.loadNanos;
+    }
+
+    public static synchronized long getModelHits(){
+        return modelHits;
+    }
+
+    public static synchronized long getModelMisses(){
+        return modelMisses;
+    }
+
+    public static synchronized long getInterpreterHits(){
+        return interpreterHits;
+    }
+
+    public static synchronized long getInterpreterMisses(){
+        return interpreterMisses;
+    }
+
+    /**
+     * @return fraction of acquire() calls that found the model already loaded
+     */
+    public static synchronized double getHitRate(){
+        long total = modelHits + modelMisses;
+        return total == 0 ? 0 : (double) modelHits / total;
+    }
+
+    /**
+     * @return number of GPU delegates that are open, for interpreters in use or cached
+     */
+    public static synchronized int getOpenDelegateCount(){
+        int count = 0;
+        for(List<GpuDelegate> list : delegates.values()){
+            count += list.size();
+        }
+        return count;
+    }
+
+    private static void close(Interpreter interpreter){
+        interpreter.close();
+        List<GpuDelegate> list = delegates.remove(interpreter);
+        if(list != null){
+            closeDelegates(list);
+        }
+    }
+
+    private static void closeDelegates(List<GpuDelegate> list){
+        for(GpuDelegate delegate : list){
+            delegate.close();
+        }
+    }
+
+    private static Entry getAcquired(String modelName){
+        Entry entry = entries.get(modelName);
+        if(entry == null || entry.references == 0){
+            throw new IllegalStateException("Model " + modelName + " has not been acquired");
+        }
+        return entry;
+    }
+
+    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+            throws IOException {
+        //The mapping stays valid after the file and descriptor are closed
+        try (AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
+             FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
+            FileChannel fileChannel = inputStream.getChannel();
+            long startOffset = fileDescriptor.getStartOffset();
+            long declaredLength = fileDescriptor.getDeclaredLength();
+            //Could this be streamed on the fly for branched models?
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+        }
+    }
+
+    private static class Entry {
+        private final MappedByteBuffer model;
+        private final long loadNanos;
+        private final Map<String, ArrayDeque<Interpreter>> idleInterpreters = new HashMap<>();
+        private int references;
+
+        private Entry(MappedByteBuffer model, long loadNanos){
+            this.model = model;
+            this.loadNanos = loadNanos;
+        }
+
+        private void closeIdleInterpreters(){
+            for(ArrayDeque<Interpreter> idle : idleInterpreters.values()){
+                for(Interpreter interpreter : idle){
+                    close(interpreter);
+                }
+            }
+            idleInterpreters.clear();
+        }
+    }
+}
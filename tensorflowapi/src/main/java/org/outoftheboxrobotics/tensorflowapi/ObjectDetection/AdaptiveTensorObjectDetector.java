@@ -0,0 +1,135 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.InferenceStats;
+import org.outoftheboxrobotics.tensorflowapi.QualityController;
+import org.outoftheboxrobotics.tensorflowapi.StatsSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the most accurate version of a model that keeps frames under a latency budget
+ *
+ * Every quality level (the model at a smaller input size, or a smaller model) is built and warmed up ahead of time,
+ * so switching between them costs nothing. A QualityController watches how long each frame takes and picks the level
+ * Detections are always in frame coordinates, so results look the same whichever level made them
+ * Every level draws with the same overlay and records into this detector's stats, so both carry on across switches
+ *
+ * Created with TFODBuilder.buildAdaptive():
+ * <pre>
+ * AdaptiveTensorObjectDetector tfod = new TFODBuilder(hardwareMap, "model.tflite", "Label 1")
+ *         .addQualityLevel(224, 224)
+ *         .addQualityLevel("model_small.tflite")
+ *         .buildAdaptive(50);
+ * </pre>
+ */
+public class AdaptiveTensorObjectDetector implements StatsSource, AutoCloseable {
+    private static final String TAG = "AdaptiveTFOD";
+
+    private final List<TensorObjectDetector> levels;
+    private final List<String> names;
+    private final QualityController controller;
+    private final InferenceStats stats;
+    private final DetectionOverlay overlay;
+
+    /**
+     * @param stats stats every level also records into
+     * @param overlay overlay every level draws with
+     */
+    protected AdaptiveTensorObjectDetector(List<TensorObjectDetector> levels, List<String> names, QualityController controller, InferenceStats stats, DetectionOverlay overlay){
+        this.levels = Collections.unmodifiableList(new ArrayList<>(levels));
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.controller = controller;
+        this.stats = stats;
+        this.overlay = overlay;
+    }
+
+    /**
+     * Runs inference on a given image at the current quality level
+     * @param in the image to run the model on
+     * @return a list of detected objects in the image
+     */
+    public List<TensorObjectDetector.Detection> recognize(Mat in){
+        int level = controller.getLevel();
+        TensorObjectDetector detector = levels.get(level);
+        InferenceStats stats = detector.getInferenceStats();
+        long skipped = stats.getSkippedFrames();
+
+        long start = System.nanoTime();
+        List<TensorObjectDetector.Detection> detections = detector.recognize(in);
+        long elapsed = System.nanoTime() - start;
+
+        //Frames skipped by the frame change gate are nearly free, and would make the model look faster then it is
+        if(stats.getSkippedFrames() == skipped && controller.record(level, elapsed)){
+            int newLevel = controller.getLevel();
+            RobotLog.ii(TAG, String.format(Locale.US, "Switched from %s to %s, the last frame took %.1fms with a budget of %.1fms",
+                    names.get(level), names.get(newLevel), elapsed / 1e6, controller.getBudgetNanos() / 1e6));
+        }
+        return detections;
+    }
+
+    /**
+     * @return the level the next frame will run at, 0 is the most accurate
+     */
+    public int getLevel(){
+        return controller.getLevel();
+    }
+
+    /**
+     * @return the model and input size of the level the next frame will run at
+     */
+    public String getLevelName(){
+        return names.get(controller.getLevel());
+    }
+
+    /**
+     * @return the model and input size of every level, most accurate first
+     */
+    public List<String> getLevelNames(){
+        return names;
+    }
+
+    /**
+     * @return the detector of one level, for the stats of just that level or the preprocessing counters
+     */
+    public TensorObjectDetector getDetector(int level){
+        return levels.get(level);
+    }
+
+    /**
+     * @return the controller picking the levels, which has the switch count and can be tuned
+     */
+    public QualityController getController(){
+        return controller;
+    }
+
+    /**
+     * @return the overlay every level draws with, for OverlayMode.VIEWPORT
+     */
+    public DetectionOverlay getOverlay(){
+        return overlay;
+    }
+
+    /**
+     * @return stats of every frame, whichever level ran it
+     */
+    @Override
+    public InferenceStats.Snapshot getStats(){
+        return stats.snapshot();
+    }
+
+    /**
+     * Closes the detector of every level
+     */
+    @Override
+    public void close(){
+        for(TensorObjectDetector detector : levels){
+            detector.close();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.ImagePreprocessor;
+import org.outoftheboxrobotics.tensorflowapi.InferenceStats;
+import org.outoftheboxrobotics.tensorflowapi.StatsSource;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a TensorObjectDetector on its own thread
+ *
+ * submit() only preprocesses the frame into a free input buffer and returns right away, so the camera is not
+ * slowed down to the speed of the model. Preprocessing of the next frame happens while the model is still running on
+ * the last one. If frames come in faster then the model can run, the newest frame wins and older frames are dropped
+ *
+ * Created with TFODBuilder.buildAsync()
+ */
+public class AsyncTensorObjectDetector implements StatsSource, AutoCloseable {
+    private static final String TAG = "AsyncTFOD";
+
+    private final TensorObjectDetector detector;
+    private final InferenceStats stats;
+
+    //Triple buffer: one slot is written by submit(), one is being run by the inference thread
+    //and one is waiting in between. Slots are only ever handed between threads through the atomic swap
+    private final AtomicReference<FrameSlot> ready;
+    private FrameSlot writeSlot;
+    private final FrameSlot[] slots;
+
+    private final AtomicReference<Result> latest = new AtomicReference<>(new Result(Collections.<TensorObjectDetector.Detection>emptyList(), 0, 0));
+    private final AtomicLong submittedFrames = new AtomicLong(), processedFrames = new AtomicLong(), droppedFrames = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private final Thread inferenceThread;
+    private volatile boolean running = true;
+
+    protected AsyncTensorObjectDetector(TensorObjectDetector detector){
+        this.detector = detector;
+        this.stats = detector.getInferenceStats();
+        this.writeSlot = new FrameSlot(detector.createPreprocessor());
+        this.ready = new AtomicReference<>(new FrameSlot(detector.createPreprocessor()));
+
+        final FrameSlot readSlot = new FrameSlot(detector.createPreprocessor());
+        this.slots = new FrameSlot[]{writeSlot, ready.get(), readSlot};
+        this.inferenceThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                inferenceLoop(readSlot);
+            }
+        }, "TFOD Inference");
+        this.inferenceThread.setDaemon(true);
+        this.inferenceThread.start();
+    }
+
+    /**
+     * Queues a frame for inference
+     *
+     * This should only be called from one thread, usually the EasyOpenCV pipeline's processFrame
+     * With OverlayMode.FRAME, the most recent detections are drawn on the frame, so the drawing lags one inference behind
+     * @param in the image to run the model on, it can be reused as soon as this returns
+     * @return the most recent detections, which are from an earlier frame
+     */
+    public List<TensorObjectDetector.Detection> submit(Mat in){
+        TensorObjectDetector.checkFrameType(in);
+        if(!running){
+            throw new IllegalStateException("AsyncTensorObjectDetector has been stopped");
+        }
+
+        FrameSlot slot = writeSlot;
+        slot.submitNanos = System.nanoTime();
+        slot.timestamp = System.currentTimeMillis();
+        slot.preprocessor.process(in);
+        stats.record(InferenceStats.Stage.PREPROCESS, System.nanoTime() - slot.submitNanos);
+        slot.frameWidth = in.width();
+        slot.frameHeight = in.height();
+        slot.fresh = true;
+        submittedFrames.incrementAndGet();
+
+        FrameSlot old = ready.getAndSet(slot);
+        if(old.fresh){
+            //The inference thread never got to this one, a newer frame replaced it
+            droppedFrames.incrementAndGet();
+            stats.recordDropped();
+            old.fresh = false;
+        }
+        writeSlot = old;
+        LockSupport.unpark(inferenceThread);
+
+        List<TensorObjectDetector.Detection> detections = latest.get().detections;
+        detector.showDetections(in, detections);
+        return detections;
+    }
+
+    private void inferenceLoop(FrameSlot readSlot){
+        while(running){
+            if(!ready.get().fresh){
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                continue;
+            }
+            readSlot = ready.getAndSet(readSlot);
+
+            try {
+                List<TensorObjectDetector.Detection> detections = detector.runInference(readSlot.preprocessor.getBuffer(), readSlot.frameWidth, readSlot.frameHeight, readSlot.timestamp);
+                long latency = System.nanoTime() - readSlot.submitNanos;
+                latest.set(new Result(Collections.unmodifiableList(detections), readSlot.timestamp, latency));
+                totalLatencyNanos.addAndGet(latency);
+                processedFrames.incrementAndGet();
+                //Total includes the time the frame waited for the inference thread
+                stats.record(InferenceStats.Stage.TOTAL, latency);
+                stats.recordFrame();
+            }catch (RuntimeException e){
+                //Keep the thread alive, the next frame may work
+                droppedFrames.incrementAndGet();
+                stats.recordDropped();
+                RobotLog.ee(TAG, e, "Inference failed");
+            }
+            readSlot.fresh = false;
+        }
+    }
+
+    /**
+     * @return the most recent result, this never blocks
+     */
+    public Result getLatestResult(){
+        return latest.get();
+    }
+
+    /**
+     * @return the detections from the most recent processed frame, this never blocks
+     */
+    public List<TensorObjectDetector.Detection> getLatestDetections(){
+        return latest.get().detections;
+    }
+
+    /**
+     * @return number of frames passed to submit()
+     */
+    public long getSubmittedFrames(){
+        return submittedFrames.get();
+    }
+
+    /**
+     * @return number of frames the model has finished running on
+     */
+    public long getProcessedFrames(){
+        return processedFrames.get();
+    }
+
+    /**
+     * @return number of frames that were replaced by a newer frame (or failed) before the model could run on them
+     */
+    public long getDroppedFrames(){
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return time from submit() to results being available for the most recent frame, in nanoseconds
+     */
+    public long getLastLatencyNanos(){
+        return latest.get().latencyNanos;
+    }
+
+    /**
+     * @return average time from submit() to results being available, in nanoseconds
+     */
+    public long getAverageLatencyNanos(){
+        long processed = processedFrames.get();
+        return processed == 0 ? 0 : totalLatencyNanos.get() / processed;
+    }
+
+    /**
+     * @return timings of each stage over the last few seconds, and frame counts since the detector was built
+     * Total is measured from submit() to results being available
+     */
+    @Override
+    public InferenceStats.Snapshot getStats(){
+        return stats.snapshot();
+    }
+
+    /**
+     * Stops the inference thread and closes the detector
+     * Frames can no longer be submitted after this is called
+     */
+    public synchronized void stop(){
+        if(!inferenceThread.isAlive() && !running){
+            return;
+        }
+        running = false;
+        LockSupport.unpark(inferenceThread);
+        //The slots and detector can't be released while the thread may still be using them, and once running is false
+        //a later stop() would skip them, so an interrupt can't cut the wait short
+        boolean interrupted = false;
+        while(inferenceThread.isAlive()){
+            try {
+                inferenceThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            for(FrameSlot slot : slots){
+                slot.preprocessor.release();
+            }
+            detector.close();
+        } finally {
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Same as stop(), so the detector can be used in a try-with-resources block
+     */
+    @Override
+    public void close(){
+        stop();
+    }
+
+    public static class Result {
+        private final List<TensorObjectDetector.Detection> detections;
+        private final long imageTimestamp;
+        private final long latencyNanos;
+
+        private Result(List<TensorObjectDetector.Detection> detections, long imageTimestamp, long latencyNanos){
+            this.detections = detections;
+            this.imageTimestamp = imageTimestamp;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public List<TensorObjectDetector.Detection> getDetections() {
+            return detections;
+        }
+
+        /**
+         * @return the system epoch time the frame was submitted
+         */
+        public long getImageTimestamp() {
+            return imageTimestamp;
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+    }
+
+    private static class FrameSlot {
+        private final ImagePreprocessor preprocessor;
+        private int frameWidth, frameHeight;
+        private long timestamp, submitNanos;
+        private volatile boolean fresh;
+
+        private FrameSlot(ImagePreprocessor preprocessor){
+            this.preprocessor = preprocessor;
+        }
+    }
+}
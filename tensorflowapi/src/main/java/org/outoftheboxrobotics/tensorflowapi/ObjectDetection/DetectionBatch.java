@@ -0,0 +1,246 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The detections of one frame, kept in primitive arrays instead of one Detection object each
+ *
+ * Filled in place by TensorObjectDetector.recognizeInto(), so a batch made once at init can be reused every frame without
+ * creating garbage. Every accessor reads straight from the arrays, so reading boxes many times a loop is free
+ * Boxes are left, top, right, bottom in frame coordinates, like Detection.getLocation()
+ *
+ * Usage:
+ * <pre>
+ * DetectionBatch batch = new DetectionBatch();
+ * ...
+ * tfod.recognizeInto(input, batch);
+ * for(int i = 0; i < batch.size(); i ++){
+ *     telemetry.addData(batch.getLabel(i), "%.2f at %.0f, %.0f", batch.getScore(i), batch.getCenterX(i), batch.getCenterY(i));
+ * }
+ * </pre>
+ *
+ * A batch is not thread safe, use one per thread
+ */
+public class DetectionBatch {
+    //Ids are the output row as text, shared between every batch so each row's string is only built once
+    private static volatile String[] ids = new String[0];
+
+    private float[] boxes;
+    private float[] scores;
+    private int[] classes, rows;
+    private int count;
+    private String[] labels = new String[0];
+    private long imageTimestamp;
+
+    public DetectionBatch(){
+        this(16);
+    }
+
+    /**
+     * @param capacity number of detections to make room for, the batch grows if a frame has more
+     */
+    public DetectionBatch(int capacity){
+        capacity = Math.max(capacity, 1);
+        boxes = new float[capacity * 4];
+        scores = new float[capacity];
+        classes = new int[capacity];
+        rows = new int[capacity];
+    }
+
+    /**
+     * @return number of detections
+     */
+    public int size(){
+        return count;
+    }
+
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    /**
+     * @return index of the detection's label, in the order the labels were given to the builder
+     */
+    public int getLabelIndex(int i){
+        checkIndex(i);
+        return classes[i];
+    }
+
+    public String getLabel(int i){
+        checkIndex(i);
+        return labels[classes[i]];
+    }
+
+    /**
+     * @return confidence of the detection, between 0 and 1
+     */
+    public float getScore(int i){
+        checkIndex(i);
+        return scores[i];
+    }
+
+    public float getLeft(int i){
+        checkIndex(i);
+        return boxes[i * 4];
+    }
+
+    public float getTop(int i){
+        checkIndex(i);
+        return boxes[i * 4 + 1];
+    }
+
+    public float getRight(int i){
+        checkIndex(i);
+        return boxes[i * 4 + 2];
+    }
+
+    public float getBottom(int i){
+        checkIndex(i);
+        return boxes[i * 4 + 3];
+    }
+
+    public float getCenterX(int i){
+        checkIndex(i);
+        return (boxes[i * 4] + boxes[i * 4 + 2]) / 2;
+    }
+
+    public float getCenterY(int i){
+        checkIndex(i);
+        return (boxes[i * 4 + 1] + boxes[i * 4 + 3]) / 2;
+    }
+
+    public float getWidth(int i){
+        checkIndex(i);
+        return boxes[i * 4 + 2] - boxes[i * 4];
+    }
+
+    public float getHeight(int i){
+        checkIndex(i);
+        return boxes[i * 4 + 3] - boxes[i * 4 + 1];
+    }
+
+    /**
+     * Copies the box of a detection into out, so a RectF can be reused
+     * @return out
+     */
+    public RectF getLocation(int i, RectF out){
+        checkIndex(i);
+        out.set(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]);
+        return out;
+    }
+
+    /**
+     * @return the same id Detection.getId() would have, the output row of the model. These strings are cached
+     */
+    public String getId(int i){
+        checkIndex(i);
+        return idFor(rows[i]);
+    }
+
+    /**
+     * @return the system epoch time the frame was passed in
+     */
+    public long getImageTimestamp(){
+        return imageTimestamp;
+    }
+
+    /**
+     * @return index of the highest scoring detection with a label, or -1 if there is none
+     */
+    public int findBest(String label){
+        int best = -1;
+        for(int i = 0; i < count; i ++){
+            if(labels[classes[i]].equals(label) && (best < 0 || scores[i] > scores[best])){
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    public void clear(){
+        count = 0;
+    }
+
+    /**
+     * Makes this batch hold the same detections as other, growing it if needed
+     */
+    public void copyFrom(DetectionBatch other){
+        ensureCapacity(other.count);
+        System.arraycopy(other.boxes, 0, boxes, 0, other.count * 4);
+        System.arraycopy(other.scores, 0, scores, 0, other.count);
+        System.arraycopy(other.classes, 0, classes, 0, other.count);
+        System.arraycopy(other.rows, 0, rows, 0, other.count);
+        count = other.count;
+        labels = other.labels;
+        imageTimestamp = other.imageTimestamp;
+    }
+
+    /**
+     * Fills the batch with the candidates NMS kept, in the order they were kept
+     */
+    void set(DetectionCandidates candidates, int kept, String[] labels, long imageTimestamp){
+        ensureCapacity(kept);
+        for(int k = 0; k < kept; k ++){
+            int i = candidates.kept[k];
+            System.arraycopy(candidates.boxes, i * 4, boxes, k * 4, 4);
+            scores[k] = candidates.scores[i];
+            classes[k] = candidates.classes[i];
+            rows[k] = candidates.rows[i];
+        }
+        this.count = kept;
+        this.labels = labels;
+        this.imageTimestamp = imageTimestamp;
+    }
+
+    /**
+     * @return a Detection for every detection in the batch, for the List API
+     */
+    List<TensorObjectDetector.Detection> toDetections(){
+        ArrayList<TensorObjectDetector.Detection> detections = new ArrayList<>(count);
+        for(int i = 0; i < count; i ++){
+            detections.add(new TensorObjectDetector.Detection(
+                    idFor(rows[i]), labels[classes[i]], classes[i], scores[i],
+                    new RectF(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]), imageTimestamp));
+        }
+        return detections;
+    }
+
+    private void ensureCapacity(int capacity){
+        if(capacity > scores.length){
+            capacity = Math.max(capacity, scores.length * 2);
+            boxes = Arrays.copyOf(boxes, capacity * 4);
+            scores = Arrays.copyOf(scores, capacity);
+            classes = Arrays.copyOf(classes, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+        }
+    }
+
+    private void checkIndex(int i){
+        //The arrays are bigger then the batch, so they would not catch this
+        if(i < 0 || i >= count){
+            throw new IndexOutOfBoundsException("Index " + i + " is out of bounds for a batch of " + count + " detections");
+        }
+    }
+
+    static String idFor(int row){
+        String[] cache = ids;
+        if(row < cache.length && cache[row] != null){
+            return cache[row];
+        }
+        synchronized (DetectionBatch.class){
+            cache = ids;
+            if(row >= cache.length){
+                cache = Arrays.copyOf(cache, Math.max(row + 1, cache.length * 2));
+                ids = cache;
+            }
+            if(cache[row] == null){
+                cache[row] = Integer.toString(row);
+            }
+            return cache[row];
+        }
+    }
+}
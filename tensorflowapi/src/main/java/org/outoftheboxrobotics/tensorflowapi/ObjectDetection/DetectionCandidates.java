@@ -0,0 +1,129 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import java.util.Arrays;
+
+/**
+ * Candidate boxes kept in flat primitive arrays, so postprocessing does not create an object per box
+ *
+ * Boxes are stored as left, top, right, bottom in frame coordinates. Arrays grow as needed and are reused between frames,
+ * so after the first few frames filling this does not allocate
+ * Also holds the scratch space for NonMaxSuppression
+ */
+class DetectionCandidates {
+    float[] boxes;
+    float[] scores;
+    int[] classes, rows;
+    int size;
+
+    //Filled by NonMaxSuppression, indices of the boxes that survived, highest score first
+    int[] kept;
+    int keptCount;
+
+    long[] sortKeys;
+    int[] order;
+    int[] classCounts = new int[16];
+
+    //Per box scratch for decoders, sized to the raw model output instead of the candidates
+    private float[] scratchScores = new float[0];
+    private int[] scratchClasses = new int[0];
+
+    DetectionCandidates(int capacity){
+        capacity = Math.max(capacity, 1);
+        boxes = new float[capacity * 4];
+        scores = new float[capacity];
+        classes = new int[capacity];
+        rows = new int[capacity];
+        kept = new int[capacity];
+        sortKeys = new long[capacity];
+        order = new int[capacity];
+    }
+
+    void clear(){
+        size = 0;
+        keptCount = 0;
+    }
+
+    /**
+     * @param row the output row the box came from, used for the detection id
+     */
+    void add(float left, float top, float right, float bottom, float score, int detectedClass, int row){
+        if(size == scores.length){
+            grow();
+        }
+        boxes[size * 4] = left;
+        boxes[size * 4 + 1] = top;
+        boxes[size * 4 + 2] = right;
+        boxes[size * 4 + 3] = bottom;
+        scores[size] = score;
+        classes[size] = detectedClass;
+        rows[size] = row;
+        size ++;
+    }
+
+    /**
+     * Drops candidates at or below minScore, keeping the order of the rest
+     * A detection has to score above the min confidence everywhere, soft NMS drops decayed boxes the same way
+     */
+    void removeBelow(float minScore){
+        int n = 0;
+        for(int i = 0; i < size; i ++){
+            if(scores[i] > minScore){
+                if(n != i){
+                    System.arraycopy(boxes, i * 4, boxes, n * 4, 4);
+                    scores[n] = scores[i];
+                    classes[n] = classes[i];
+                    rows[n] = rows[i];
+                }
+                n ++;
+            }
+        }
+        size = n;
+    }
+
+    /**
+     * Marks every candidate as kept, for when there is no NMS
+     * @return the number of boxes kept
+     */
+    int keepAll(){
+        for(int i = 0; i < size; i ++){
+            kept[i] = i;
+        }
+        keptCount = size;
+        return size;
+    }
+
+    float[] scratchScores(int n){
+        if(scratchScores.length < n){
+            scratchScores = new float[n];
+        }
+        return scratchScores;
+    }
+
+    int[] scratchClasses(int n){
+        if(scratchClasses.length < n){
+            scratchClasses = new int[n];
+        }
+        return scratchClasses;
+    }
+
+    float area(int i){
+        return Math.max(0, boxes[i * 4 + 2] - boxes[i * 4]) * Math.max(0, boxes[i * 4 + 3] - boxes[i * 4 + 1]);
+    }
+
+    float intersection(int a, int b){
+        float width = Math.min(boxes[a * 4 + 2], boxes[b * 4 + 2]) - Math.max(boxes[a * 4], boxes[b * 4]);
+        float height = Math.min(boxes[a * 4 + 3], boxes[b * 4 + 3]) - Math.max(boxes[a * 4 + 1], boxes[b * 4 + 1]);
+        return width <= 0 || height <= 0 ? 0 : width * height;
+    }
+
+    private void grow(){
+        int capacity = scores.length * 2;
+        boxes = Arrays.copyOf(boxes, capacity * 4);
+        scores = Arrays.copyOf(scores, capacity);
+        classes = Arrays.copyOf(classes, capacity);
+        rows = Arrays.copyOf(rows, capacity);
+        kept = new int[capacity];
+        sortKeys = new long[capacity];
+        order = new int[capacity];
+    }
+}
@@ -0,0 +1,241 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.outoftheboxrobotics.tensorflowapi.ImageClassification.TensorImageClassifier;
+import org.outoftheboxrobotics.tensorflowapi.ImagePreprocessor;
+import org.outoftheboxrobotics.tensorflowapi.InferenceStats;
+import org.outoftheboxrobotics.tensorflowapi.StatsSource;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a small classifier on every frame, and the detector only on frames where the classifier saw something
+ *
+ * Most frames in a match have nothing worth detecting, and a tiny "anything here?" classifier costs a fraction of a detector
+ * If both models take the same input (same size, type and normalization), the frame is converted once and the same
+ * buffer is given to both. Otherwise each model converts the frame itself
+ *
+ * With a region set, both models only look at that part of the frame, and boxes are moved back to frame coordinates
+ *
+ * The cascade's stats have the classifier as the GATE stage, frames it stopped as skipped, and frames that went on
+ * to the detector as frames. Each model's own stats are still available from the models
+ *
+ * Usage:
+ * <pre>
+ * DetectionCascade cascade = new DetectionCascade(classifier, detector, 0.5f, "Something")
+ *         .setRegion(new Rect(0, 240, 640, 240));
+ * ...
+ * List&lt;TensorObjectDetector.Detection&gt; detections = cascade.recognize(input);
+ * </pre>
+ *
+ * The cascade owns both models and closes them with close(). recognize() should only be called from one thread at a time
+ */
+public class DetectionCascade implements StatsSource, AutoCloseable {
+    private static final String TAG = "DetectionCascade";
+
+    private final TensorImageClassifier classifier;
+    private final TensorObjectDetector detector;
+    private final float threshold;
+    private final String[] triggerLabels;
+    private final InferenceStats stats = new InferenceStats();
+
+    private final ImagePreprocessor classifierPreprocessor;
+    //Null when the classifier's buffer can be given straight to the detector
+    private final ImagePreprocessor detectorPreprocessor;
+    private Rect region;
+
+    private volatile float lastScore;
+    private long classifiedFrames, detectedFrames;
+
+    /**
+     * @param threshold classifier confidence (0-1) one of the trigger labels needs for the detector to run
+     * @param triggerLabels classifier labels that mean there is something to detect, or none to accept any label
+     *                      The classifier's min confidence and number of recognitions limit which labels it reports,
+     *                      so its min confidence should be at most the threshold
+     */
+    public DetectionCascade(TensorImageClassifier classifier, TensorObjectDetector detector, float threshold, String... triggerLabels){
+        this.classifier = classifier;
+        this.detector = detector;
+        this.threshold = threshold;
+        this.triggerLabels = triggerLabels;
+
+        this.classifierPreprocessor = classifier.createPreprocessor();
+        ImagePreprocessor detectorPreprocessor = detector.createPreprocessor();
+        if(classifierPreprocessor.producesSameInput(detectorPreprocessor)){
+            detectorPreprocessor.release();
+            this.detectorPreprocessor = null;
+            RobotLog.ii(TAG, "Both models take the same input, each frame is only converted once");
+        }else{
+            this.detectorPreprocessor = detectorPreprocessor;
+        }
+    }
+
+    /**
+     * Only looks at part of the frame, like the half of the field the objects can be on
+     * The region has to fit inside every frame passed to recognize(). Pass null to use the whole frame
+     * Default is the whole frame
+     */
+    public synchronized DetectionCascade setRegion(Rect region){
+        this.region = region;
+        return this;
+    }
+
+    /**
+     * Runs the classifier on a frame, and the detector if the classifier saw something
+     *
+     * Detections are drawn like with the detector's recognize(), frames that are skipped clear the viewport overlay
+     * @param in the image to run the models on
+     * @return the detected objects, or an empty list if the classifier stopped the frame
+     */
+    public synchronized List<TensorObjectDetector.Detection> recognize(Mat in){
+        TensorObjectDetector.checkFrameType(in);
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+
+        Mat image = in;
+        if(region != null){
+            if(region.x < 0 || region.y < 0 || region.x + region.width > in.width() || region.y + region.height > in.height()){
+                throw new IllegalArgumentException("Region " + region + " does not fit in a " + in.width() + "x" + in.height() + " frame");
+            }
+            //A submat shares the frame's pixels, nothing is copied
+            image = in.submat(region);
+        }
+
+        try {
+            ByteBuffer input = classifierPreprocessor.process(image);
+            List<TensorImageClassifier.Recognition> recognitions = classifier.recognize(input);
+            float score = triggerScore(recognitions);
+            lastScore = score;
+            classifiedFrames ++;
+            long classified = System.nanoTime();
+            stats.record(InferenceStats.Stage.GATE, classified - start);
+
+            if(score < threshold){
+                stats.recordSkipped();
+                List<TensorObjectDetector.Detection> none = Collections.emptyList();
+                detector.showDetections(in, none);
+                stats.record(InferenceStats.Stage.TOTAL, System.nanoTime() - start);
+                return none;
+            }
+
+            if(detectorPreprocessor != null){
+                input = detectorPreprocessor.process(image);
+                stats.record(InferenceStats.Stage.PREPROCESS, System.nanoTime() - classified);
+            }
+            long inferenceStart = System.nanoTime();
+            List<TensorObjectDetector.Detection> detections = detector.runInference(input, image.width(), image.height(), timestamp);
+            stats.record(InferenceStats.Stage.INFERENCE, System.nanoTime() - inferenceStart);
+            detector.getInferenceStats().recordFrame();
+            detectedFrames ++;
+
+            if(region != null){
+                for(TensorObjectDetector.Detection detection : detections){
+                    detection.location.offset(region.x, region.y);
+                }
+            }
+            detector.showDetections(in, detections);
+            stats.record(InferenceStats.Stage.TOTAL, System.nanoTime() - start);
+            stats.recordFrame();
+            return detections;
+        } catch (RuntimeException e) {
+            stats.recordDropped();
+            throw e;
+        } finally {
+            if(image != in){
+                image.release();
+            }
+        }
+    }
+
+    private float triggerScore(List<TensorImageClassifier.Recognition> recognitions){
+        float best = 0;
+        for(int i = 0; i < recognitions.size(); i ++){
+            TensorImageClassifier.Recognition recognition = recognitions.get(i);
+            if(recognition.getConfidence() > best && isTrigger(recognition.getTitle())){
+                best = recognition.getConfidence();
+            }
+        }
+        return best;
+    }
+
+    private boolean isTrigger(String label){
+        if(triggerLabels.length == 0){
+            return true;
+        }
+        for(String trigger : triggerLabels){
+            if(trigger.equals(label)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the best classifier confidence for a trigger label on the last frame, for tuning the threshold
+     */
+    public float getLastScore(){
+        return lastScore;
+    }
+
+    /**
+     * @return number of frames the classifier ran on
+     */
+    public synchronized long getClassifiedFrames(){
+        return classifiedFrames;
+    }
+
+    /**
+     * @return number of frames that passed the classifier and ran the detector
+     */
+    public synchronized long getDetectedFrames(){
+        return detectedFrames;
+    }
+
+    /**
+     * @return fraction of classified frames the detector was skipped on, 0 if nothing has run yet
+     */
+    public synchronized double getSkipRate(){
+        return classifiedFrames == 0 ? 0 : 1 - (double) detectedFrames / classifiedFrames;
+    }
+
+    /**
+     * @return true if both models are given the same converted frame
+     */
+    public boolean isInputShared(){
+        return detectorPreprocessor == null;
+    }
+
+    public TensorImageClassifier getClassifier(){
+        return classifier;
+    }
+
+    public TensorObjectDetector getDetector(){
+        return detector;
+    }
+
+    /**
+     * @return timings of the whole cascade, with the classifier as the GATE stage and the detector as INFERENCE
+     */
+    @Override
+    public InferenceStats.Snapshot getStats(){
+        return stats.snapshot();
+    }
+
+    /**
+     * Closes both models and frees the cascade's input buffers
+     */
+    @Override
+    public synchronized void close(){
+        classifierPreprocessor.release();
+        if(detectorPreprocessor != null){
+            detectorPreprocessor.release();
+        }
+        classifier.close();
+        detector.close();
+    }
+}
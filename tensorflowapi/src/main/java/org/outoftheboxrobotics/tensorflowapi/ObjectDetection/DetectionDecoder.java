@@ -0,0 +1,97 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.outoftheboxrobotics.tensorflowapi.TensorProcessingException;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the output tensors of a detection model into candidate boxes
+ *
+ * Which one to use depends on how the model was exported:
+ *  PostProcessDecoder: models with the TFLite_Detection_PostProcess op built in (the TFOD default, and what FTC models use)
+ *  SsdAnchorDecoder: SSD models exported without the postprocess op, which output raw box encodings and class logits
+ *  YoloDecoder: YOLO models, either with one flat output or with raw grid outputs
+ *
+ * Set with TFODBuilder.setDecoder(). A decoder is set up once per detector when it is built,
+ * after that decode() is called from every thread in the pool at once, so decoders keep no per-frame state
+ */
+public abstract class DetectionDecoder implements Cloneable {
+    /**
+     * Called once when a detector is built, reads whatever the decoder needs from the model
+     * Can be called again for another detector of the same model (like during auto tuning)
+     * @throws TensorProcessingException if the model does not have the outputs this decoder expects
+     */
+    abstract void init(Interpreter interpreter, ByteBuffer model, int labelCount);
+
+    /**
+     * Adds the boxes found in one frame of output to candidates, in frame coordinates
+     *
+     * Candidates at or below minScore can be added (they are logged and then dropped), but decoders of models with thousands
+     * of outputs should skip them as early as possible
+     * @param outputs every output tensor, copied into float arrays
+     */
+    abstract void decode(float[][] outputs, int frameWidth, int frameHeight, float minScore, DetectionCandidates candidates);
+
+    /**
+     * @return the NMS the model needs, used when none was set on the builder, or null if the model already removes duplicates
+     */
+    NonMaxSuppression getNonMaxSuppression(){
+        return null;
+    }
+
+    /**
+     * @return the mean and std input pixels are normalized with, (pixel - mean) / std, used unless one is set on the builder
+     * By default float models get the raw 0-255 pixels and integer models -1 to 1, which is what TFOD exports are trained on
+     * Integer models combine this with their input quantization, so for most of them the camera bytes go in as they are
+     */
+    float[] getInputNormalization(DataType inputType){
+        if(inputType == DataType.FLOAT32){
+            return new float[]{0, 1};
+        }
+        return new float[]{127.5f, 127.5f};
+    }
+
+    /**
+     * @return roughly how many candidates a frame has, so the candidate arrays do not have to grow
+     */
+    abstract int getCapacityHint();
+
+    /**
+     * Makes a decoder with the same settings, for another detector that is open at the same time (like the levels of an adaptive detector)
+     * Anything worked out from the model is replaced when the copy is set up with init()
+     */
+    DetectionDecoder copy(){
+        try {
+            return (DetectionDecoder) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static void checkFloatOutputs(Interpreter interpreter){
+        for(int i = 0; i < interpreter.getOutputTensorCount(); i ++){
+            if(interpreter.getOutputTensor(i).dataType() != DataType.FLOAT32){
+                throw new TensorProcessingException("Output " + i + " of the model is " + interpreter.getOutputTensor(i).dataType() + ", only float outputs are supported");
+            }
+        }
+    }
+
+    static float sigmoid(float x){
+        return 1 / (1 + (float) Math.exp(-x));
+    }
+
+    /**
+     * The inverse of sigmoid, so a score threshold can be checked against raw logits without computing a sigmoid for every one
+     */
+    static float logit(float p){
+        if(p <= 0){
+            return Float.NEGATIVE_INFINITY;
+        }
+        if(p >= 1){
+            return Float.POSITIVE_INFINITY;
+        }
+        return (float) Math.log(p / (1 - p));
+    }
+}
@@ -0,0 +1,119 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring buffer of raw model outputs, written to the RobotLog by a background thread
+ *
+ * Inference threads only copy a few primitives into the ring, so logging never blocks or allocates on them
+ * If the log thread falls behind, the oldest records are overwritten and counted as lost
+ *
+ * Every slot has a sequence number that is cleared while it is being written, so the log thread can tell
+ * when a record was overwritten while it was reading it
+ */
+class DetectionLog {
+    private static final String TAG = "TFLite";
+    private static final int CAPACITY = 1024;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String[] labels;
+    private final int sampleEvery;
+
+    private final AtomicLong frames = new AtomicLong(), head = new AtomicLong();
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final long[] frameNumbers = new long[CAPACITY];
+    private final int[] indices = new int[CAPACITY];
+    private final float[] classes = new float[CAPACITY], scores = new float[CAPACITY];
+
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param sampleEvery log one frame out of this many, 1 logs every frame
+     */
+    DetectionLog(String[] labels, int sampleEvery){
+        this.labels = labels;
+        this.sampleEvery = Math.max(1, sampleEvery);
+        for(int i = 0; i < CAPACITY; i ++){
+            sequences.set(i, -1);
+        }
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "TFOD Diagnostics");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Called once per frame before any records are added
+     * @return the frame number to log with, or -1 if this frame is not sampled
+     */
+    long startFrame(){
+        long frame = frames.getAndIncrement();
+        return frame % sampleEvery == 0 ? frame : -1;
+    }
+
+    void add(long frame, int index, float detectedClass, float score){
+        long sequence = head.getAndIncrement();
+        int slot = (int) (sequence % CAPACITY);
+        sequences.set(slot, -1);
+        frameNumbers[slot] = frame;
+        indices[slot] = index;
+        classes[slot] = detectedClass;
+        scores[slot] = score;
+        //Publishes the fields written above to the log thread
+        sequences.set(slot, sequence);
+    }
+
+    void stop(){
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void flushLoop(){
+        long tail = 0;
+        while(running){
+            LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+            tail = flush(tail);
+        }
+        flush(tail);
+    }
+
+    private long flush(long tail){
+        long end = head.get();
+        if(end - tail > CAPACITY){
+            RobotLog.ww(TAG, "Diagnostics fell behind, lost " + (end - tail - CAPACITY) + " records");
+            tail = end - CAPACITY;
+        }
+
+        for(; tail < end; tail ++){
+            int slot = (int) (tail % CAPACITY);
+            if(sequences.get(slot) != tail){
+                //Still being written, try again next flush
+                break;
+            }
+            long frame = frameNumbers[slot];
+            int index = indices[slot];
+            float detectedClass = classes[slot], score = scores[slot];
+            if(sequences.get(slot) != tail){
+                //Overwritten while we were reading it
+                continue;
+            }
+
+            int labelIndex = (int) detectedClass;
+            String label = labelIndex >= 0 && labelIndex < labels.length ? labels[labelIndex] : "?";
+            RobotLog.ii(TAG, String.format(Locale.US, "frame %d [%d] %s (%.0f) score %.3f", frame, index, label, detectedClass, score));
+        }
+        return tail;
+    }
+}
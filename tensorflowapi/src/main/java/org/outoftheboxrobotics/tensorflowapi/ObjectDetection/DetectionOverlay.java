@@ -0,0 +1,200 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.outoftheboxrobotics.tensorflowapi.InferenceStats;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Draws detections, either onto the frame or onto the camera preview
+ *
+ * Label text like "Label 1 87%" is built once for every label and percentage, and the OpenCV points and colour are reused,
+ * so drawing a frame does not create garbage. The simplex font is a lot cheaper to render then the complex one
+ *
+ * For OverlayMode.VIEWPORT, call drawOnCanvas() from the pipeline's onDrawFrame:
+ * <pre>
+ * public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight, float scaleBmpPxToCanvasPx, float scaleCanvasDensity, Object userContext){
+ *     tfod.getOverlay().drawOnCanvas(canvas, scaleBmpPxToCanvasPx, scaleCanvasDensity);
+ * }
+ * </pre>
+ * drawOnCanvas() never waits on the threads running the model, they hand over detections without taking its lock
+ */
+public class DetectionOverlay {
+    //Neon green, most likely colour to both stand out
+    //And not be used on the field
+    private static final int RED = 57, GREEN = 255, BLUE = 20;
+
+    private final String[] labels;
+    private final String[][] text;
+    private final InferenceStats stats;
+
+    private final Point corner = new Point(), oppositeCorner = new Point(), textOrigin = new Point();
+    private final Scalar colour = new Scalar(RED, GREEN, BLUE);
+    private final Paint boxPaint = new Paint(), textPaint = new Paint();
+
+    //What drawOnCanvas() draws, triple buffered like AsyncTensorObjectDetector's frames: setLatest() fills writeSlot,
+    //drawOnCanvas() draws readSlot, and the newest one waits in between. Slots are only handed over through the atomic swap
+    private final AtomicReference<Slot> ready = new AtomicReference<>(new Slot());
+    private Slot writeSlot = new Slot(), readSlot = new Slot();
+
+    DetectionOverlay(String[] labels, InferenceStats stats){
+        this.labels = labels;
+        this.text = new String[labels.length][];
+        this.stats = stats;
+
+        boxPaint.setColor(Color.rgb(RED, GREEN, BLUE));
+        boxPaint.setStyle(Paint.Style.STROKE);
+        textPaint.setColor(Color.rgb(RED, GREEN, BLUE));
+        textPaint.setAntiAlias(true);
+    }
+
+    /**
+     * Draws detections onto a frame
+     */
+    public synchronized void draw(Mat in, List<TensorObjectDetector.Detection> detections){
+        for(int i = 0; i < detections.size(); i ++){
+            TensorObjectDetector.Detection detection = detections.get(i);
+            //getLocation() copies, the overlay can read the box directly
+            RectF location = detection.location;
+            corner.x = location.left;
+            corner.y = location.top;
+            oppositeCorner.x = location.right;
+            oppositeCorner.y = location.bottom;
+            Imgproc.rectangle(in, corner, oppositeCorner, colour);
+
+            textOrigin.x = location.centerX();
+            textOrigin.y = location.centerY();
+            Imgproc.putText(in, getText(detection), textOrigin, Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, colour);
+        }
+    }
+
+    /**
+     * Draws detections onto a frame
+     */
+    public synchronized void draw(Mat in, DetectionBatch detections){
+        for(int i = 0; i < detections.size(); i ++){
+            corner.x = detections.getLeft(i);
+            corner.y = detections.getTop(i);
+            oppositeCorner.x = detections.getRight(i);
+            oppositeCorner.y = detections.getBottom(i);
+            Imgproc.rectangle(in, corner, oppositeCorner, colour);
+
+            textOrigin.x = detections.getCenterX(i);
+            textOrigin.y = detections.getCenterY(i);
+            Imgproc.putText(in, getText(detections.getLabelIndex(i), detections.getLabel(i), detections.getScore(i)), textOrigin, Imgproc.FONT_HERSHEY_SIMPLEX, 0.4, colour);
+        }
+    }
+
+    /**
+     * Draws the most recent detections onto the camera preview, for OverlayMode.VIEWPORT
+     * The time this takes is recorded as the DRAW stage
+     * This should only be called from one thread, the viewport's onDrawFrame
+     * @param scaleBmpPxToCanvasPx scale from frame pixels to canvas pixels, from onDrawFrame
+     * @param scaleCanvasDensity screen density, from onDrawFrame
+     */
+    public void drawOnCanvas(Canvas canvas, float scaleBmpPxToCanvasPx, float scaleCanvasDensity){
+        long start = System.nanoTime();
+        if(ready.get().fresh){
+            readSlot = ready.getAndSet(readSlot);
+            readSlot.fresh = false;
+        }
+        Slot slot = readSlot;
+
+        boxPaint.setStrokeWidth(2 * scaleCanvasDensity);
+        textPaint.setTextSize(12 * scaleCanvasDensity);
+        if(slot.list == null){
+            DetectionBatch latestBatch = slot.batch;
+            for(int i = 0; i < latestBatch.size(); i ++){
+                canvas.drawRect(latestBatch.getLeft(i) * scaleBmpPxToCanvasPx, latestBatch.getTop(i) * scaleBmpPxToCanvasPx,
+                        latestBatch.getRight(i) * scaleBmpPxToCanvasPx, latestBatch.getBottom(i) * scaleBmpPxToCanvasPx, boxPaint);
+                canvas.drawText(getText(latestBatch.getLabelIndex(i), latestBatch.getLabel(i), latestBatch.getScore(i)),
+                        latestBatch.getCenterX(i) * scaleBmpPxToCanvasPx, latestBatch.getCenterY(i) * scaleBmpPxToCanvasPx, textPaint);
+            }
+            stats.record(InferenceStats.Stage.DRAW, System.nanoTime() - start);
+            return;
+        }
+        List<TensorObjectDetector.Detection> detections = slot.list;
+        for(int i = 0; i < detections.size(); i ++){
+            TensorObjectDetector.Detection detection = detections.get(i);
+            RectF location = detection.location;
+            canvas.drawRect(location.left * scaleBmpPxToCanvasPx, location.top * scaleBmpPxToCanvasPx,
+                    location.right * scaleBmpPxToCanvasPx, location.bottom * scaleBmpPxToCanvasPx, boxPaint);
+            canvas.drawText(getText(detection), location.centerX() * scaleBmpPxToCanvasPx, location.centerY() * scaleBmpPxToCanvasPx, textPaint);
+        }
+        stats.record(InferenceStats.Stage.DRAW, System.nanoTime() - start);
+    }
+
+    /**
+     * Hands over the detections drawOnCanvas() should draw next
+     * Only other setLatest() calls wait on the lock, drawOnCanvas() never holds it
+     */
+    void setLatest(List<TensorObjectDetector.Detection> detections){
+        synchronized (ready){
+            writeSlot.list = detections;
+            publish();
+        }
+    }
+
+    /**
+     * Same as setLatest(List), the batch is copied since the caller reuses it
+     */
+    void setLatest(DetectionBatch detections){
+        synchronized (ready){
+            writeSlot.batch.copyFrom(detections);
+            writeSlot.list = null;
+            publish();
+        }
+    }
+
+    private void publish(){
+        writeSlot.fresh = true;
+        //If the old slot was never drawn it is simply overwritten next time
+        writeSlot = ready.getAndSet(writeSlot);
+    }
+
+    private String getText(TensorObjectDetector.Detection detection){
+        String title = detection.title;
+        if(detection.labelIndex >= 0){
+            return getText(detection.labelIndex, title, detection.confidence);
+        }
+        for(int i = 0; i < labels.length; i ++){
+            //Titles are the label strings themselves, so this is usually an identity match
+            if(labels[i] == title || labels[i].equals(title)){
+                return getText(i, title, detection.confidence);
+            }
+        }
+        return getText(-1, title, detection.confidence);
+    }
+
+    private String getText(int label, String title, float confidence){
+        //Called from drawOnCanvas() without a lock, two threads filling the cache at once only means a string is built twice
+        int percent = Math.max(0, Math.min(100, (int) (confidence * 100)));
+        if(label < 0 || label >= labels.length){
+            return title + " " + percent + "%";
+        }
+        if(text[label] == null){
+            text[label] = new String[101];
+        }
+        if(text[label][percent] == null){
+            text[label][percent] = title + " " + percent + "%";
+        }
+        return text[label][percent];
+    }
+
+    private static class Slot {
+        private final DetectionBatch batch = new DetectionBatch();
+        //The detections from recognize(), or null if they are in the batch
+        private List<TensorObjectDetector.Detection> list = Collections.emptyList();
+        private volatile boolean fresh;
+    }
+}
@@ -0,0 +1,332 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import android.graphics.RectF;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Follows detected objects between frames, giving each one an id that stays the same from frame to frame
+ *
+ * Detections are matched to existing tracks by how much their boxes overlap. Each track smooths its box and estimates how fast
+ * it is moving with an alpha-beta filter (a Kalman filter with fixed gains), so on frames where the model is not run,
+ * the box is moved to where the object should be by now
+ *
+ * This lets the model run on only every Nth camera frame while still getting a position every frame, which saves a lot of CPU
+ *
+ * Usage, in an EOCV pipeline:
+ * <pre>
+ * DetectionTracker tracker = new DetectionTracker(tfod).setInferenceInterval(3);
+ *
+ * public Mat processFrame(Mat input){
+ *     List&lt;DetectionTracker.Track&gt; tracks = tracker.update(input);
+ *     return input;
+ * }
+ * </pre>
+ *
+ * A tracker should only be used from one thread. The returned list is updated in place, copy it to read it from another thread
+ */
+public class DetectionTracker {
+    private static final Comparator<TensorObjectDetector.Detection> BY_CONFIDENCE = new Comparator<TensorObjectDetector.Detection>() {
+        @Override
+        public int compare(TensorObjectDetector.Detection a, TensorObjectDetector.Detection b) {
+            return Float.compare(b.getConfidence(), a.getConfidence());
+        }
+    };
+
+    private final TensorObjectDetector detector;
+    private int inferenceInterval = 1;
+    private float iouThreshold = 0.3f;
+    private int maxMissed = 5;
+    private float alpha = 0.6f, beta = 0.2f;
+
+    private final List<Track> tracks = new ArrayList<>();
+    private final List<Track> tracksView = Collections.unmodifiableList(tracks);
+    private int nextId = 0;
+    private long frames = 0, inferenceFrames = 0;
+
+    /**
+     * @param detector the detector to run, or null if detections will only be passed to update(List)
+     */
+    public DetectionTracker(TensorObjectDetector detector){
+        this.detector = detector;
+    }
+
+    /**
+     * Runs the model on one out of every interval frames passed to update(Mat), the rest are predicted
+     * Default is 1 (every frame)
+     */
+    public DetectionTracker setInferenceInterval(int interval){
+        if(interval < 1){
+            throw new IllegalArgumentException("Inference interval must be at least 1");
+        }
+        this.inferenceInterval = interval;
+        return this;
+    }
+
+    /**
+     * How much a detection has to overlap a track's predicted box to continue it (intersection over union)
+     * Default is 0.3
+     */
+    public DetectionTracker setIouThreshold(float iouThreshold){
+        this.iouThreshold = iouThreshold;
+        return this;
+    }
+
+    /**
+     * How many inference frames in a row a track can go without a matching detection before it is dropped
+     * Default is 5
+     */
+    public DetectionTracker setMaxMissedFrames(int maxMissed){
+        this.maxMissed = maxMissed;
+        return this;
+    }
+
+    /**
+     * Filter gains, both between 0 and 1
+     * Higher alpha follows new detections more closely (less smoothing), higher beta changes the estimated speed faster
+     * Defaults are 0.6 and 0.2
+     */
+    public DetectionTracker setSmoothing(float alpha, float beta){
+        this.alpha = alpha;
+        this.beta = beta;
+        return this;
+    }
+
+    /**
+     * Runs the model if this is an inference frame, otherwise moves the tracks to where they should be now
+     * @param frame the camera frame
+     * @return the current tracks
+     */
+    public List<Track> update(Mat frame){
+        if(detector == null){
+            throw new IllegalStateException("This tracker has no detector, pass detections to update(List) instead");
+        }
+        long now = System.nanoTime();
+        boolean runModel = frames % inferenceInterval == 0;
+        frames ++;
+        if(runModel){
+            return correct(detector.recognize(frame), now);
+        }
+        return predict(now);
+    }
+
+    /**
+     * Matches new detections to the tracks, for detections from somewhere else like an AsyncTensorObjectDetector
+     * @return the current tracks
+     */
+    public List<Track> update(List<TensorObjectDetector.Detection> detections){
+        return correct(detections, System.nanoTime());
+    }
+
+    /**
+     * Moves the tracks to where they should be now, without new detections
+     * @return the current tracks
+     */
+    public List<Track> predict(){
+        return predict(System.nanoTime());
+    }
+
+    /**
+     * @return the current tracks
+     */
+    public List<Track> getTracks(){
+        return tracksView;
+    }
+
+    /**
+     * @return number of frames passed to update(Mat)
+     */
+    public long getFrames(){
+        return frames;
+    }
+
+    /**
+     * @return number of times detections were matched to the tracks
+     */
+    public long getInferenceFrames(){
+        return inferenceFrames;
+    }
+
+    private List<Track> predict(long now){
+        for(Track track : tracks){
+            track.predict(now);
+            track.predicted = true;
+        }
+        return tracksView;
+    }
+
+    private List<Track> correct(List<TensorObjectDetector.Detection> detections, long now){
+        inferenceFrames ++;
+        for(Track track : tracks){
+            track.predict(now);
+            track.matched = false;
+        }
+
+        //Greedy matching, the most confident detections pick first
+        //There are rarely more then a handful of objects, so checking every pair is fine
+        List<TensorObjectDetector.Detection> sorted = new ArrayList<>(detections);
+        Collections.sort(sorted, BY_CONFIDENCE);
+        for(TensorObjectDetector.Detection detection : sorted){
+            RectF box = detection.getLocation();
+            Track best = null;
+            float bestIou = iouThreshold;
+            for(Track track : tracks){
+                if(track.matched || !track.label.equals(detection.getTitle())){
+                    continue;
+                }
+                float iou = track.iou(box);
+                if(iou > bestIou){
+                    bestIou = iou;
+                    best = track;
+                }
+            }
+
+            if(best == null){
+                best = new Track(nextId ++, detection.getTitle(), box, now);
+                tracks.add(best);
+            }else{
+                best.correct(box, alpha, beta);
+            }
+            best.matched = true;
+            best.predicted = false;
+            best.confidence = detection.getConfidence();
+            best.missed = 0;
+            best.hits ++;
+        }
+
+        for(int i = tracks.size() - 1; i >= 0; i --){
+            Track track = tracks.get(i);
+            if(!track.matched){
+                track.predicted = true;
+                if(++ track.missed > maxMissed){
+                    tracks.remove(i);
+                }
+            }
+        }
+        return tracksView;
+    }
+
+    public static class Track {
+        private final int id;
+        private final String label;
+        private float confidence;
+        private int hits, missed;
+        private boolean predicted, matched;
+
+        //Center and size, and how fast they change in pixels per second
+        private float x, y, width, height;
+        private float vx, vy, vWidth, vHeight;
+        private long stateNanos, lastCorrectionNanos;
+
+        private Track(int id, String label, RectF box, long now){
+            this.id = id;
+            this.label = label;
+            this.x = box.centerX();
+            this.y = box.centerY();
+            this.width = box.width();
+            this.height = box.height();
+            this.stateNanos = now;
+            this.lastCorrectionNanos = now;
+        }
+
+        private void predict(long now){
+            float dt = (now - stateNanos) / 1e9f;
+            x += vx * dt;
+            y += vy * dt;
+            width = Math.max(0, width + vWidth * dt);
+            height = Math.max(0, height + vHeight * dt);
+            stateNanos = now;
+        }
+
+        /**
+         * Alpha-beta update, the state must already be predicted to the time of the measurement
+         */
+        private void correct(RectF box, float alpha, float beta){
+            float dt = (stateNanos - lastCorrectionNanos) / 1e9f;
+            float rx = box.centerX() - x, ry = box.centerY() - y, rWidth = box.width() - width, rHeight = box.height() - height;
+            x += alpha * rx;
+            y += alpha * ry;
+            width += alpha * rWidth;
+            height += alpha * rHeight;
+            if(dt > 0){
+                vx += beta * rx / dt;
+                vy += beta * ry / dt;
+                vWidth += beta * rWidth / dt;
+                vHeight += beta * rHeight / dt;
+            }
+            lastCorrectionNanos = stateNanos;
+        }
+
+        private float iou(RectF box){
+            float left = x - width / 2, top = y - height / 2, right = x + width / 2, bottom = y + height / 2;
+            float intersectionWidth = Math.min(right, box.right) - Math.max(left, box.left);
+            float intersectionHeight = Math.min(bottom, box.bottom) - Math.max(top, box.top);
+            if(intersectionWidth <= 0 || intersectionHeight <= 0){
+                return 0;
+            }
+            float intersection = intersectionWidth * intersectionHeight;
+            float union = width * height + box.width() * box.height() - intersection;
+            return union <= 0 ? 0 : intersection / union;
+        }
+
+        /**
+         * @return an id that stays the same for as long as the object is tracked
+         */
+        public int getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return label;
+        }
+
+        /**
+         * @return confidence of the last detection matched to this track
+         */
+        public float getConfidence() {
+            return confidence;
+        }
+
+        /**
+         * @return the smoothed (or predicted) box
+         */
+        public RectF getLocation() {
+            return new RectF(x - width / 2, y - height / 2, x + width / 2, y + height / 2);
+        }
+
+        /**
+         * @return estimated speed of the box center in pixels per second
+         */
+        public float getVelocityX() {
+            return vx;
+        }
+
+        public float getVelocityY() {
+            return vy;
+        }
+
+        /**
+         * @return true if the location is a prediction, because the model did not run or did not see the object this frame
+         */
+        public boolean isPredicted() {
+            return predicted;
+        }
+
+        /**
+         * @return number of detections matched to this track, tracks with only a few hits are more likely to be false positives
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + id + "] " + label + " " + getLocation() + (predicted ? " (predicted)" : "");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.outoftheboxrobotics.tensorflowapi.ImagePreprocessor;
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Everything that belongs to one interpreter in a TensorObjectDetector's pool
+ *
+ * Only one thread uses a context at a time, so none of this needs to be synchronized
+ */
+class DetectorContext {
+    final Interpreter interpreter;
+    final ImagePreprocessor preprocessor;
+
+    //Output tensors are copied into these every frame, they are allocated once so inference does not create garbage
+    private final ByteBuffer[] outputBuffers;
+    private final FloatBuffer[] outputViews;
+    //Decoders read plain arrays, which are a lot faster to loop over then buffers
+    final float[][] outputs;
+    private final Object[] inputArray = new Object[1];
+    private final Map<Integer, Object> outputMap = new HashMap<>();
+
+    //Scratch space for decoding and NMS, reused every frame
+    final DetectionCandidates candidates;
+    //Results of the last frame, for recognize() to build Detections from
+    final DetectionBatch batch = new DetectionBatch();
+
+    DetectorContext(Interpreter interpreter, ImagePreprocessor preprocessor, int candidateCapacity){
+        this.interpreter = interpreter;
+        this.preprocessor = preprocessor;
+
+        //Direct buffers in native order can be copied into by TFLite without any conversion
+        int count = interpreter.getOutputTensorCount();
+        this.outputBuffers = new ByteBuffer[count];
+        this.outputViews = new FloatBuffer[count];
+        this.outputs = new float[count][];
+        for(int i = 0; i < count; i ++){
+            outputBuffers[i] = ByteBuffer.allocateDirect(interpreter.getOutputTensor(i).numBytes()).order(ByteOrder.nativeOrder());
+            outputViews[i] = outputBuffers[i].asFloatBuffer();
+            outputs[i] = new float[outputViews[i].capacity()];
+            outputMap.put(i, outputBuffers[i]);
+        }
+        this.candidates = new DetectionCandidates(candidateCapacity);
+    }
+
+    /**
+     * Copies the output buffers into the output arrays, in one bulk copy per output
+     */
+    void readOutputs(){
+        for(int i = 0; i < outputViews.length; i ++){
+            outputViews[i].rewind();
+            outputViews[i].get(outputs[i]);
+        }
+    }
+
+    /**
+     * @return bytes of direct buffers held by this context
+     */
+    long getNativeBytes(){
+        long bytes = preprocessor.getImageBytes();
+        for(ByteBuffer buffer : outputBuffers){
+            bytes += buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Frees the preprocessor's mats, the context can't run after this
+     * Direct buffers can't be freed by hand, they go with the context
+     */
+    void release(){
+        preprocessor.release();
+    }
+
+    /**
+     * Runs the interpreter, filling the output buffers
+     * @param input a filled input buffer
+     */
+    void run(ByteBuffer input){
+        input.rewind();
+        inputArray[0] = input;
+        //TFOD expects an object array for multi-run, so we just wrap it here
+
+        //TFLite writes into the output buffers from their current position, so they need to be rewound
+        for(ByteBuffer buffer : outputBuffers){
+            buffer.rewind();
+        }
+
+        interpreter.runForMultipleInputsOutputs(inputArray, outputMap);
+    }
+}
@@ -0,0 +1,15 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+/**
+ * How much a TensorObjectDetector writes to the RobotLog about what the model outputs
+ *
+ * Logging is done by a background thread, so inference never waits on it
+ */
+public enum DiagnosticsMode {
+    /** Nothing is logged, this is the default */
+    OFF,
+    /** Every candidate detection of one frame out of every N frames is logged */
+    SAMPLED,
+    /** Every candidate detection of every frame is logged, this can fill the log fast */
+    FULL
+}
@@ -0,0 +1,185 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import java.util.Arrays;
+
+/**
+ * Removes overlapping duplicate boxes, keeping the highest scoring one
+ *
+ * Models usually output several boxes for the same object, this keeps only the best of them
+ * Works on the primitive arrays straight from the model output, so Detection objects are only made for the boxes that are kept
+ *
+ * Usage:
+ * <pre>
+ * new TFODBuilder(hardwareMap, "model.tflite", "Label 1")
+ *         .setNonMaxSuppression(new NonMaxSuppression().setIouThreshold(0.5f).setMaxPerClass(3))
+ *         .build();
+ * </pre>
+ *
+ * Settings should not be changed after the detector is built
+ */
+public class NonMaxSuppression {
+    private float iouThreshold = 0.5f;
+    private int maxPerClass = 0;
+    private boolean classAware = true;
+    private boolean matchSmallerBox = false;
+    private float softSigma = 0;
+
+    /**
+     * Boxes that overlap a better box by more then this (intersection over union) are removed
+     * Default is 0.5
+     */
+    public NonMaxSuppression setIouThreshold(float iouThreshold){
+        this.iouThreshold = iouThreshold;
+        return this;
+    }
+
+    /**
+     * Most boxes to keep for each label, 0 keeps every box that survives
+     * Default is 0
+     */
+    public NonMaxSuppression setMaxPerClass(int maxPerClass){
+        this.maxPerClass = maxPerClass;
+        return this;
+    }
+
+    /**
+     * Sets if only boxes with the same label can suppress each other
+     * Turn this off if the model tends to give one object two different labels
+     * Default is true
+     */
+    public NonMaxSuppression setClassAware(boolean classAware){
+        this.classAware = classAware;
+        return this;
+    }
+
+    /**
+     * Measures overlap as intersection over the area of the smaller box, instead of intersection over union
+     * This catches a small partial box inside a bigger one, like objects cut by a tile seam
+     * Default is false
+     */
+    public NonMaxSuppression setMatchSmallerBox(boolean matchSmallerBox){
+        this.matchSmallerBox = matchSmallerBox;
+        return this;
+    }
+
+    /**
+     * Uses soft NMS: instead of removing overlapping boxes, their score is lowered based on how much they overlap
+     * Boxes are then removed once their score is no longer above the min confidence
+     * This keeps objects that really are overlapping (like stacked game elements), but is slower with lots of boxes
+     * @param sigma how quickly scores drop with overlap, smaller removes more. 0.5 is a good start, 0 turns soft NMS off
+     */
+    public NonMaxSuppression useSoftNMS(float sigma){
+        this.softSigma = sigma;
+        return this;
+    }
+
+    /**
+     * Runs NMS, filling candidates.kept with the surviving boxes, highest score first
+     * @param minScore boxes scoring at or below this are dropped, the same as DetectionCandidates.removeBelow(). Only matters for soft NMS
+     * @return the number of boxes kept
+     */
+    int apply(DetectionCandidates candidates, float minScore){
+        int maxClass = 0;
+        for(int i = 0; i < candidates.size; i ++){
+            maxClass = Math.max(maxClass, candidates.classes[i]);
+        }
+        if(candidates.classCounts.length <= maxClass){
+            candidates.classCounts = new int[maxClass + 1];
+        }
+        Arrays.fill(candidates.classCounts, 0);
+        candidates.keptCount = 0;
+
+        if(softSigma > 0){
+            applySoft(candidates, minScore);
+        }else{
+            applyHard(candidates);
+        }
+        return candidates.keptCount;
+    }
+
+    private void applyHard(DetectionCandidates candidates){
+        int size = candidates.size;
+        long[] keys = candidates.sortKeys;
+        //Positive floats sort the same as their bits, so score and index can be packed into one long and sorted without boxing
+        for(int i = 0; i < size; i ++){
+            keys[i] = ((long) Float.floatToIntBits(Math.max(0, candidates.scores[i])) << 32) | i;
+        }
+        Arrays.sort(keys, 0, size);
+
+        int[] kept = candidates.kept;
+        for(int k = size - 1; k >= 0; k --){
+            int i = (int) keys[k];
+            int detectedClass = candidates.classes[i];
+            if(maxPerClass > 0 && candidates.classCounts[detectedClass] >= maxPerClass){
+                continue;
+            }
+
+            boolean suppressed = false;
+            for(int j = 0; j < candidates.keptCount; j ++){
+                if(matches(candidates, kept[j], i) && overlap(candidates, kept[j], i) > iouThreshold){
+                    suppressed = true;
+                    break;
+                }
+            }
+            if(!suppressed){
+                kept[candidates.keptCount ++] = i;
+                candidates.classCounts[detectedClass] ++;
+            }
+        }
+    }
+
+    private void applySoft(DetectionCandidates candidates, float minScore){
+        int[] order = candidates.order;
+        int remaining = candidates.size;
+        for(int i = 0; i < remaining; i ++){
+            order[i] = i;
+        }
+
+        float[] scores = candidates.scores;
+        while(remaining > 0){
+            //Take out the best remaining box
+            int best = 0;
+            for(int k = 1; k < remaining; k ++){
+                if(scores[order[k]] > scores[order[best]]){
+                    best = k;
+                }
+            }
+            int i = order[best];
+            order[best] = order[-- remaining];
+            if(scores[i] <= minScore){
+                //Everything else scores even lower
+                break;
+            }
+
+            int detectedClass = candidates.classes[i];
+            if(maxPerClass > 0 && candidates.classCounts[detectedClass] >= maxPerClass){
+                continue;
+            }
+            candidates.kept[candidates.keptCount ++] = i;
+            candidates.classCounts[detectedClass] ++;
+
+            //Gaussian decay, boxes that barely overlap keep almost all of their score
+            for(int k = 0; k < remaining; k ++){
+                int j = order[k];
+                if(matches(candidates, i, j)){
+                    float overlap = overlap(candidates, i, j);
+                    scores[j] *= (float) Math.exp(-(overlap * overlap) / softSigma);
+                }
+            }
+        }
+    }
+
+    private boolean matches(DetectionCandidates candidates, int a, int b){
+        return !classAware || candidates.classes[a] == candidates.classes[b];
+    }
+
+    private float overlap(DetectionCandidates candidates, int a, int b){
+        float intersection = candidates.intersection(a, b);
+        if(intersection == 0){
+            return 0;
+        }
+        float areaA = candidates.area(a), areaB = candidates.area(b);
+        float denominator = matchSmallerBox ? Math.min(areaA, areaB) : areaA + areaB - intersection;
+        return denominator <= 0 ? 0 : intersection / denominator;
+    }
+}
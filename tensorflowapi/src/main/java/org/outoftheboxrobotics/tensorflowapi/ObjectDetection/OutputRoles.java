@@ -0,0 +1,231 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.ImagePreprocessor;
+import org.outoftheboxrobotics.tensorflowapi.TensorProcessingException;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.support.metadata.MetadataExtractor;
+import org.tensorflow.lite.support.metadata.schema.TensorMetadata;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Which output tensor of a TFLite_Detection_PostProcess model holds what
+ *
+ * This used to be guessed from tensor rank, with classes and scores (both rank 2) told apart every frame
+ * Now it is worked out once when the detector is built, trying in order:
+ *  1. Model metadata, which names every output
+ *  2. Tensor names, which follow a pattern for models exported by the TF object detection API
+ *  3. A calibration run on a noise frame, where class outputs are whole numbers and scores are not
+ * If the noise frame has no detections, tensor order is used until the first real frame with detections settles it
+ */
+class OutputRoles {
+    final int locations, classes, scores, count;
+    /** How the roles were found, for the log */
+    final String source;
+    /** False if classes and scores are only a guess from tensor order, and still have to be checked with check() */
+    final boolean confirmed;
+
+    private OutputRoles(int locations, int classes, int scores, int count, String source){
+        this(locations, classes, scores, count, source, true);
+    }
+
+    private OutputRoles(int locations, int classes, int scores, int count, String source, boolean confirmed){
+        this.locations = locations;
+        this.classes = classes;
+        this.scores = scores;
+        this.count = count;
+        this.source = source;
+        this.confirmed = confirmed;
+    }
+
+    /**
+     * Works out the roles, then checks every class the model outputs has a label
+     * @throws TensorProcessingException if the roles can't be found or labels are missing
+     */
+    /**
+     * @param normalization the mean and std the noise frame is normalized with
+     */
+    static OutputRoles resolve(Interpreter interpreter, ByteBuffer model, Tensor inputTensor, float[] normalization, int labelCount){
+        if(interpreter.getOutputTensorCount() != 4){
+            throw new TensorProcessingException("Expected a model with 4 outputs (locations, classes, scores and count), this one has " + interpreter.getOutputTensorCount());
+        }
+
+        String[] names = new String[4];
+        OutputRoles roles = fromMetadata(model, names);
+        if(roles == null){
+            for(int i = 0; i < 4; i ++){
+                names[i] = interpreter.getOutputTensor(i).name();
+            }
+            roles = fromNames(names, "tensor names");
+        }
+
+        //One run on noise is needed either way, to check the labels
+        ByteBuffer[] outputs = runNoise(interpreter, inputTensor, normalization);
+        if(roles == null){
+            roles = calibrate(interpreter, outputs);
+        }
+        roles.checkLabels(outputs, labelCount);
+        return roles;
+    }
+
+    private static OutputRoles fromMetadata(ByteBuffer model, String[] names){
+        try {
+            MetadataExtractor metadata = new MetadataExtractor(model);
+            if(!metadata.hasMetadata() || metadata.getOutputTensorCount() != 4){
+                return null;
+            }
+            for(int i = 0; i < 4; i ++){
+                TensorMetadata tensor = metadata.getOutputTensorMetadata(i);
+                names[i] = tensor == null ? null : tensor.name();
+            }
+        } catch (RuntimeException e) {
+            //Unreadable metadata is treated the same as none
+            return null;
+        }
+        return fromNames(names, "metadata");
+    }
+
+    /**
+     * Metadata names are like "location", "category", "score" and "number of detections"
+     * Exported tensor names are "TFLite_Detection_PostProcess" followed by ":1", ":2" and ":3"
+     */
+    private static OutputRoles fromNames(String[] names, String source){
+        int locations = -1, classes = -1, scores = -1, count = -1;
+        for(int i = 0; i < names.length; i ++){
+            if(names[i] == null){
+                return null;
+            }
+            String name = names[i].toLowerCase(Locale.US);
+            if(name.contains("location") || name.contains("box") || name.equals("tflite_detection_postprocess")){
+                locations = i;
+            }else if(name.contains("categor") || name.contains("class") || name.endsWith("postprocess:1")){
+                classes = i;
+            }else if(name.contains("score") || name.endsWith("postprocess:2")){
+                scores = i;
+            }else if(name.contains("num") || name.endsWith("postprocess:3")){
+                count = i;
+            }
+        }
+        if(locations == -1 || classes == -1 || scores == -1 || count == -1){
+            return null;
+        }
+        return new OutputRoles(locations, classes, scores, count, source);
+    }
+
+    private static ByteBuffer[] runNoise(Interpreter interpreter, Tensor inputTensor, float[] normalization){
+        ByteBuffer[] outputs = new ByteBuffer[4];
+        Map<Integer, Object> outputMap = new HashMap<>();
+        for(int i = 0; i < 4; i ++){
+            outputs[i] = ByteBuffer.allocateDirect(interpreter.getOutputTensor(i).numBytes()).order(ByteOrder.nativeOrder());
+            outputMap.put(i, outputs[i]);
+        }
+
+        ImagePreprocessor preprocessor = new ImagePreprocessor(inputTensor, normalization[0], normalization[1]);
+        Mat noise = new Mat(480, 640, CvType.CV_8UC4);
+        try {
+            Core.randu(noise, 0, 256);
+            interpreter.runForMultipleInputsOutputs(new Object[]{preprocessor.process(noise)}, outputMap);
+        } finally {
+            noise.release();
+            preprocessor.release();
+        }
+        return outputs;
+    }
+
+    private static OutputRoles calibrate(Interpreter interpreter, ByteBuffer[] outputs){
+        //Locations and count have their own rank, classes and scores need a look at real output
+        int locations = -1, count = -1, first = -1, second = -1;
+        for(int i = 0; i < 4; i ++){
+            int rank = interpreter.getOutputTensor(i).shape().length;
+            if(rank == 3){
+                locations = i;
+            }else if(rank == 1){
+                count = i;
+            }else if(first == -1){
+                first = i;
+            }else{
+                second = i;
+            }
+        }
+        if(locations == -1 || count == -1 || first == -1 || second == -1){
+            throw new TensorProcessingException("Could not tell the outputs of this model apart, is it a TFLite_Detection_PostProcess model?");
+        }
+
+        FloatBuffer a = outputs[first].asFloatBuffer(), b = outputs[second].asFloatBuffer();
+        int n = Math.max(0, Math.min((int) outputs[count].asFloatBuffer().get(0), a.capacity()));
+        float[] aValues = new float[n], bValues = new float[n];
+        a.get(aValues);
+        b.get(bValues);
+        OutputRoles roles = sort(locations, first, second, count, aValues, bValues, n, "calibration");
+        if(roles == null){
+            //Either nothing was found or both look the same, so the order is the best left to go on until a real frame has detections
+            RobotLog.ww("TFLite", "Could not tell the class and score outputs apart on a noise frame, using tensor order until a frame has detections");
+            return new OutputRoles(locations, first, second, count, "tensor order", false);
+        }
+        return roles;
+    }
+
+    /**
+     * Checks guessed roles against the output of a frame with detections
+     * @param n number of detections in the frame
+     * @return confirmed roles, with classes and scores swapped if the guess was wrong, or these roles if it still can't be told
+     */
+    OutputRoles check(float[][] outputs, int n){
+        if(confirmed || n <= 0){
+            return this;
+        }
+        OutputRoles roles = sort(locations, classes, scores, count, outputs[classes], outputs[scores], n, "the first detections");
+        return roles == null ? this : roles;
+    }
+
+    /**
+     * @return roles with the output of whole numbers as the classes, or null if both or neither are whole numbers
+     */
+    private static OutputRoles sort(int locations, int first, int second, int count, float[] a, float[] b, int n, String source){
+        boolean aWhole = isWhole(a, n), bWhole = isWhole(b, n);
+        if(aWhole == bWhole){
+            return null;
+        }
+        return aWhole
+                ? new OutputRoles(locations, first, second, count, source)
+                : new OutputRoles(locations, second, first, count, source);
+    }
+
+    private static boolean isWhole(float[] values, int n){
+        for(int i = 0; i < n; i ++){
+            float value = values[i];
+            if(value != (float) Math.floor(value)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A model only outputs classes it knows, so any class past the end of the labels means labels are missing
+     * Noise frames do not always hit every class, so this can only catch too few labels, not too many
+     */
+    private void checkLabels(ByteBuffer[] outputs, int labelCount){
+        FloatBuffer classOutput = outputs[classes].asFloatBuffer();
+        int n = Math.min((int) outputs[count].asFloatBuffer().get(0), classOutput.capacity());
+        float maxClass = -1;
+        for(int i = 0; i < n; i ++){
+            maxClass = Math.max(maxClass, classOutput.get(i));
+        }
+        if(maxClass >= labelCount){
+            throw new TensorProcessingException("Processing output failed. Is the number of labels passed correct? The model output class " + (int) maxClass
+                    + " but only " + labelCount + " labels were given, expected at least " + ((int) maxClass + 1) + " labels!");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+/**
+ * Where a TensorObjectDetector draws its detections
+ */
+public enum OverlayMode {
+    /** Nothing is drawn */
+    OFF,
+    /** Boxes are drawn onto the frame passed to recognize(), this is the default */
+    FRAME,
+    /**
+     * Nothing is drawn on the frame, boxes are drawn on the camera preview by calling getOverlay().drawOnCanvas() from
+     * the pipeline's onDrawFrame. Drawing happens on the preview thread instead of the camera thread, and lags at most one frame
+     */
+    VIEWPORT
+}
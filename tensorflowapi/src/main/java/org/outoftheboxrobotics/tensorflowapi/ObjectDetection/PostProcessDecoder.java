@@ -0,0 +1,88 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder for models with the TFLite_Detection_PostProcess op, which outputs finished boxes, classes, scores and a count
+ *
+ * This is what the TF object detection API exports by default, and the default decoder
+ * The model already removes duplicate boxes, so there is no NMS unless one is set on the builder
+ */
+public class PostProcessDecoder extends DetectionDecoder {
+    //Replaced once if the roles were only a guess and a frame with detections settles it
+    private volatile OutputRoles roles;
+    private int width, height, numDetections, labelCount;
+    private volatile boolean warnedUnknownClass;
+
+    @Override
+    void init(Interpreter interpreter, ByteBuffer model, int labelCount){
+        //Worked out once here, so a wrong label count fails at init and not during a match
+        Tensor inputTensor = interpreter.getInputTensor(0);
+        this.roles = OutputRoles.resolve(interpreter, model, inputTensor, getInputNormalization(inputTensor.dataType()), labelCount);
+        RobotLog.ii("TFLite", "Output tensors found from " + roles.source);
+
+        this.width = interpreter.getInputTensor(0).shape()[1];
+        this.height = interpreter.getInputTensor(0).shape()[2];
+        this.numDetections = interpreter.getOutputTensor(roles.scores).shape()[1];
+        this.labelCount = labelCount;
+    }
+
+    @Override
+    void decode(float[][] outputs, int frameWidth, int frameHeight, float minScore, DetectionCandidates candidates){
+        OutputRoles roles = this.roles;
+
+        //Only process the number of outputs found by the model since some models will return less then numDetections detections
+        //Uses min because some models will return null detections greater then numDetections
+        int count = Math.min(numDetections, (int) outputs[roles.count][0]);
+
+        if(!roles.confirmed){
+            roles = roles.check(outputs, count);
+            if(roles.confirmed){
+                //Threads racing here all work out the same roles from the same kind of output
+                this.roles = roles;
+                RobotLog.ii("TFLite", "Output tensors found from " + roles.source);
+            }
+        }
+        float[] locations = outputs[roles.locations], classes = outputs[roles.classes], scores = outputs[roles.scores];
+
+        //There are only a few rows, so all of them are added for the diagnostics log
+        for(int i = 0; i < count; i ++){
+            int detectedClass = (int) classes[i];
+            if(hasLabel(detectedClass)){
+                //TF outputs location as a number from 0-{INPUT_WIDTH} for width and height, most TF apis scale this to the internal model size
+                //I.E 300x300, but this does not make sense in this context, so we scale them to the input image size
+                candidates.add(
+                        (locations[i * 4 + 1] / width) * frameWidth,
+                        (locations[i * 4] / height) * frameHeight,
+                        (locations[i * 4 + 3] / width) * frameWidth,
+                        (locations[i * 4 + 2] / height) * frameHeight,
+                        scores[i], detectedClass, i);
+            }
+        }
+    }
+
+    @Override
+    int getCapacityHint(){
+        return numDetections;
+    }
+
+    /**
+     * The label count is checked at build, but a noise frame can't hit every class
+     * Detections of classes with no label are skipped instead of failing in the middle of a match
+     */
+    private boolean hasLabel(int detectedClass){
+        if(detectedClass >= 0 && detectedClass < labelCount){
+            return true;
+        }
+        if(!warnedUnknownClass){
+            warnedUnknownClass = true;
+            RobotLog.ww("TFLite", "The model output class " + detectedClass + " but only " + labelCount + " labels were given, is the number of labels passed correct?");
+        }
+        return false;
+    }
+}
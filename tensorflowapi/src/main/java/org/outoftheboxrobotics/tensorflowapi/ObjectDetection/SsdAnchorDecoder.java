@@ -0,0 +1,218 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.outoftheboxrobotics.tensorflowapi.TensorProcessingException;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder for SSD models exported without the postprocess op
+ *
+ * These output two tensors: box encodings [1, anchors, 4] and class logits [1, anchors, classes]
+ * Each box is an offset from a fixed anchor box, so the anchors used in training have to be known
+ * By default they are generated the same way as the TF object detection API does for SSD MobileNet, which matches most exports
+ *
+ * Usage:
+ * <pre>
+ * new TFODBuilder(hardwareMap, "ssd_raw.tflite", "Label 1", "Label 2")
+ *         .setDecoder(new SsdAnchorDecoder())
+ *         .build();
+ * </pre>
+ */
+public class SsdAnchorDecoder extends DetectionDecoder {
+    //Box coder scales used by the TF object detection API
+    private static final float Y_SCALE = 10, X_SCALE = 10, H_SCALE = 5, W_SCALE = 5;
+
+    private final float[] customAnchors;
+    private NonMaxSuppression nms = new NonMaxSuppression().setIouThreshold(0.6f);
+    private boolean sigmoid = true;
+
+    private float[] anchors;
+    private int boxesIndex, classesIndex, numAnchors, numClasses, classOffset;
+
+    /**
+     * Uses the default SSD MobileNet anchors for the model's input size
+     */
+    public SsdAnchorDecoder(){
+        this(null);
+    }
+
+    /**
+     * @param anchors every anchor as y center, x center, height and width (0-1), in the same order as the model outputs
+     */
+    public SsdAnchorDecoder(float[] anchors){
+        this.customAnchors = anchors;
+    }
+
+    /**
+     * Sets the NMS applied to the decoded boxes, used unless one is set on the builder
+     * Default is class aware with an IOU threshold of 0.6
+     */
+    public SsdAnchorDecoder setNonMaxSuppression(NonMaxSuppression nms){
+        this.nms = nms;
+        return this;
+    }
+
+    /**
+     * Sets if the class output is logits that still need a sigmoid, turn off for models that already output scores
+     * Default is true
+     */
+    public SsdAnchorDecoder setSigmoid(boolean sigmoid){
+        this.sigmoid = sigmoid;
+        return this;
+    }
+
+    /**
+     * Raw SSD exports are trained on -1 to 1 pixels, float or not
+     */
+    @Override
+    float[] getInputNormalization(DataType inputType){
+        return new float[]{127.5f, 127.5f};
+    }
+
+    @Override
+    void init(Interpreter interpreter, ByteBuffer model, int labelCount){
+        if(interpreter.getOutputTensorCount() != 2){
+            throw new TensorProcessingException("Expected a raw SSD model with 2 outputs (box encodings and class logits), this one has " + interpreter.getOutputTensorCount());
+        }
+        checkFloatOutputs(interpreter);
+
+        //Box encodings always have 4 values per anchor, if the classes do too the export order (boxes first) decides
+        int[] first = interpreter.getOutputTensor(0).shape(), second = interpreter.getOutputTensor(1).shape();
+        boxesIndex = first[first.length - 1] == 4 ? 0 : 1;
+        classesIndex = 1 - boxesIndex;
+        int[] boxShape = interpreter.getOutputTensor(boxesIndex).shape(), classShape = interpreter.getOutputTensor(classesIndex).shape();
+        numAnchors = boxShape[1];
+        numClasses = classShape[classShape.length - 1];
+
+        //Raw exports usually have a background class first
+        if(numClasses == labelCount + 1){
+            classOffset = 1;
+        }else if(numClasses == labelCount){
+            classOffset = 0;
+        }else{
+            throw new TensorProcessingException("The model has " + numClasses + " classes but " + labelCount + " labels were given, is the number of labels passed correct?");
+        }
+
+        int[] input = interpreter.getInputTensor(0).shape();
+        anchors = customAnchors != null ? customAnchors : generateAnchors(input[2], input[1]);
+        if(anchors.length != numAnchors * 4){
+            throw new TensorProcessingException("The model has " + numAnchors + " anchors but " + anchors.length / 4 + " were given, pass the anchors used in training to the SsdAnchorDecoder");
+        }
+    }
+
+    @Override
+    void decode(float[][] outputs, int frameWidth, int frameHeight, float minScore, DetectionCandidates candidates){
+        float[] boxes = outputs[boxesIndex], classes = outputs[classesIndex];
+        //Sigmoid never changes which logit is biggest, so the threshold is compared to logits and only survivors get a sigmoid
+        float threshold = sigmoid ? logit(minScore) : minScore;
+
+        for(int i = 0; i < numAnchors; i ++){
+            int row = i * numClasses;
+            int best = classOffset;
+            float bestValue = classes[row + classOffset];
+            for(int c = classOffset + 1; c < numClasses; c ++){
+                float value = classes[row + c];
+                if(value > bestValue){
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            if(bestValue <= threshold){
+                continue;
+            }
+
+            float anchorY = anchors[i * 4], anchorX = anchors[i * 4 + 1], anchorH = anchors[i * 4 + 2], anchorW = anchors[i * 4 + 3];
+            float centerY = boxes[i * 4] / Y_SCALE * anchorH + anchorY;
+            float centerX = boxes[i * 4 + 1] / X_SCALE * anchorW + anchorX;
+            float halfH = (float) Math.exp(boxes[i * 4 + 2] / H_SCALE) * anchorH / 2;
+            float halfW = (float) Math.exp(boxes[i * 4 + 3] / W_SCALE) * anchorW / 2;
+
+            candidates.add(
+                    (centerX - halfW) * frameWidth,
+                    (centerY - halfH) * frameHeight,
+                    (centerX + halfW) * frameWidth,
+                    (centerY + halfH) * frameHeight,
+                    sigmoid ? sigmoid(bestValue) : bestValue, best - classOffset, i);
+        }
+    }
+
+    @Override
+    NonMaxSuppression getNonMaxSuppression(){
+        return nms;
+    }
+
+    @Override
+    int getCapacityHint(){
+        //Only a small fraction of anchors pass the threshold
+        return 64;
+    }
+
+    /**
+     * Generates the anchors of an SSD MobileNet model, the same way the TF object detection API does
+     * 6 layers with strides 16 to 512, scales from 0.2 to 0.95, and aspect ratios 1, 2, 1/2, 3 and 1/3
+     * (the lowest layer only has 3 smaller boxes). For a 300x300 model this is 1917 anchors
+     * @return every anchor as y center, x center, height and width (0-1)
+     */
+    public static float[] generateAnchors(int inputWidth, int inputHeight){
+        return generateAnchors(inputWidth, inputHeight, new int[]{16, 32, 64, 128, 256, 512}, 0.2f, 0.95f, new float[]{1, 2, 0.5f, 3, 1 / 3f});
+    }
+
+    /**
+     * Generates SSD anchors with custom settings, see the anchor generator in the model's pipeline.config
+     * @param strides the stride of each feature map layer
+     */
+    public static float[] generateAnchors(int inputWidth, int inputHeight, int[] strides, float minScale, float maxScale, float[] aspectRatios){
+        int layers = strides.length;
+        int total = 0;
+        for(int layer = 0; layer < layers; layer ++){
+            int perCell = layer == 0 ? 3 : aspectRatios.length + 1;
+            total += perCell * ceilDiv(inputHeight, strides[layer]) * ceilDiv(inputWidth, strides[layer]);
+        }
+
+        float[] anchors = new float[total * 4];
+        int n = 0;
+        for(int layer = 0; layer < layers; layer ++){
+            float scale = scale(minScale, maxScale, layer, layers);
+            float[] heights, widths;
+            if(layer == 0){
+                //The lowest layer has a small square box and two boxes at the normal scale
+                heights = new float[]{0.1f, scale / (float) Math.sqrt(2), scale / (float) Math.sqrt(0.5)};
+                widths = new float[]{0.1f, scale * (float) Math.sqrt(2), scale * (float) Math.sqrt(0.5)};
+            }else{
+                heights = new float[aspectRatios.length + 1];
+                widths = new float[aspectRatios.length + 1];
+                for(int r = 0; r < aspectRatios.length; r ++){
+                    float root = (float) Math.sqrt(aspectRatios[r]);
+                    heights[r] = scale / root;
+                    widths[r] = scale * root;
+                }
+                //Plus a square box between this scale and the next
+                float next = layer == layers - 1 ? 1 : scale(minScale, maxScale, layer + 1, layers);
+                heights[aspectRatios.length] = widths[aspectRatios.length] = (float) Math.sqrt(scale * next);
+            }
+
+            int rows = ceilDiv(inputHeight, strides[layer]), columns = ceilDiv(inputWidth, strides[layer]);
+            for(int y = 0; y < rows; y ++){
+                for(int x = 0; x < columns; x ++){
+                    for(int a = 0; a < heights.length; a ++){
+                        anchors[n ++] = (y + 0.5f) / rows;
+                        anchors[n ++] = (x + 0.5f) / columns;
+                        anchors[n ++] = heights[a];
+                        anchors[n ++] = widths[a];
+                    }
+                }
+            }
+        }
+        return anchors;
+    }
+
+    private static float scale(float minScale, float maxScale, int layer, int layers){
+        return layers == 1 ? (minScale + maxScale) / 2 : minScale + (maxScale - minScale) * layer / (layers - 1);
+    }
+
+    private static int ceilDiv(int a, int b){
+        return (a + b - 1) / b;
+    }
+}
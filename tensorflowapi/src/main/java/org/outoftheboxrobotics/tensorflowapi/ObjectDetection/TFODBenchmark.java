@@ -0,0 +1,163 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkRecorder;
+import org.outoftheboxrobotics.tensorflowapi.BenchmarkResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures each stage of TensorObjectDetector.recognize separately
+ *
+ * Run this from an OpMode on the device you compete with, since timings on a phone or laptop will not match the Control Hub
+ * Every combination of thread count and image size is measured, using random noise frames
+ * To compare quantized and float models, run it once for each model
+ *
+ * Usage:
+ * <pre>
+ * List&lt;BenchmarkResult&gt; results = new TFODBenchmark(new TFODBuilder(hardwareMap, "model.tflite", "Label 1"))
+ *         .setThreadCounts(1, 2, 3, 4)
+ *         .setImageSizes(new Size(320, 240), new Size(640, 480))
+ *         .run();
+ * </pre>
+ */
+public class TFODBenchmark {
+    private static final String TAG = "TFODBenchmark";
+
+    private final TFODBuilder builder;
+    private int[] threadCounts = {-1};
+    private Size[] imageSizes = {new Size(640, 480)};
+    private int warmupIterations = 10, iterations = 100;
+
+    public TFODBenchmark(TFODBuilder builder){
+        this.builder = builder;
+    }
+
+    /**
+     * Thread counts to test, -1 lets TFLite decide
+     * Default is -1
+     */
+    public TFODBenchmark setThreadCounts(int... threadCounts){
+        this.threadCounts = threadCounts;
+        return this;
+    }
+
+    /**
+     * Frame sizes to test, these are the camera frame sizes not the model size
+     * Default is 640x480
+     */
+    public TFODBenchmark setImageSizes(Size... imageSizes){
+        this.imageSizes = imageSizes;
+        return this;
+    }
+
+    /**
+     * Number of measured runs per configuration, and number of unmeasured runs before them
+     * Defaults are 100 and 10
+     */
+    public TFODBenchmark setIterations(int warmupIterations, int iterations){
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Runs the benchmark, this can take a while
+     * Results are also written to the RobotLog
+     * @return one result per stage per configuration
+     */
+    public List<BenchmarkResult> run() throws IOException {
+        List<BenchmarkResult> results = new ArrayList<>();
+        for(int threads : threadCounts){
+            builder.setNumThreads(threads);
+            //The same frame is run over and over, which a frame change gate would skip
+            TensorObjectDetector detector = builder.build(false);
+
+            try {
+                for(Size imageSize : imageSizes){
+                    runStages(detector, "threads=" + threads, imageSize, results);
+                }
+            } finally {
+                detector.close();
+            }
+        }
+
+        for(BenchmarkResult result : results){
+            RobotLog.ii(TAG, result.toString());
+        }
+        return results;
+    }
+
+    private void runStages(TensorObjectDetector detector, String configuration, Size imageSize, List<BenchmarkResult> results){
+        //EOCV frames are RGBA
+        Mat frame = new Mat((int) imageSize.height, (int) imageSize.width, CvType.CV_8UC4);
+        Core.randu(frame, 0, 256);
+
+        DetectorContext context = detector.acquireContext();
+        try {
+            configuration += " frame=" + (int) imageSize.width + "x" + (int) imageSize.height
+                    + " input=" + context.preprocessor.getDataType();
+            BenchmarkRecorder preprocess = new BenchmarkRecorder(configuration, "preprocess", iterations);
+            BenchmarkRecorder invoke = new BenchmarkRecorder(configuration, "invoke", iterations);
+            BenchmarkRecorder postprocess = new BenchmarkRecorder(configuration, "postprocess", iterations);
+            BenchmarkRecorder draw = new BenchmarkRecorder(configuration, "draw", iterations);
+            BenchmarkRecorder total = new BenchmarkRecorder(configuration, "total", iterations);
+
+            BenchmarkRecorder[] recorders = {preprocess, invoke, postprocess, draw, total};
+
+            for(int i = 0; i < warmupIterations + iterations; i ++){
+                if(i == warmupIterations){
+                    preprocess.reset();
+                    invoke.reset();
+                    postprocess.reset();
+                    draw.reset();
+                }
+                long timestamp = System.currentTimeMillis();
+
+                //Mat conversion (alpha removal) happens inside preprocessing, straight into the input tensor
+                preprocess.start();
+                ByteBuffer input = context.preprocessor.process(frame);
+                preprocess.stop();
+
+                invoke.start();
+                context.run(input);
+                invoke.stop();
+
+                postprocess.start();
+                List<TensorObjectDetector.Detection> detections = detector.decode(context, frame.width(), frame.height(), timestamp);
+                postprocess.stop();
+
+                draw.start();
+                detector.drawDetections(frame, detections);
+                draw.stop();
+            }
+
+            //Total gets its own pass, the stage recorders read the allocation counter which would add to its time and garbage
+            for(int i = 0; i < warmupIterations + iterations; i ++){
+                if(i == warmupIterations){
+                    total.reset();
+                }
+                total.start();
+                ByteBuffer input = context.preprocessor.process(frame);
+                context.run(input);
+                detector.drawDetections(frame, detector.decode(context, frame.width(), frame.height(), System.currentTimeMillis()));
+                total.stop();
+            }
+
+            for(BenchmarkRecorder recorder : recorders){
+                results.add(recorder.result());
+            }
+        } finally {
+            detector.releaseContext(context);
+            frame.release();
+        }
+    }
+}
@@ -3,40 +3,59 @@ package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 import com.qualcomm.robotcore.util.RobotLog;
 
-import org.outoftheboxrobotics.tensorflowapi.ImageClassification.TFICBuilder;
-import org.tensorflow.lite.Interpreter;
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.AutoTuner;
+import org.outoftheboxrobotics.tensorflowapi.FrameChangeGate;
+import org.outoftheboxrobotics.tensorflowapi.InferenceStats;
+import org.outoftheboxrobotics.tensorflowapi.InterpreterConfig;
+import org.outoftheboxrobotics.tensorflowapi.QualityController;
 import org.tensorflow.lite.gpu.CompatibilityList;
 import org.tensorflow.lite.gpu.GpuDelegate;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TFODBuilder {
+    private static final int MIN_TUNING_WARMUP = 3, TUNING_ITERATIONS = 20;
+
     private final HardwareMap map;
     private final String modelName;
-    private boolean quantized;
-    private boolean drawOnImage;
+    private OverlayMode overlayMode;
     private float minResultConfidence = 0.6f;
-    private final Interpreter.Options options;
+    private final InterpreterConfig config;
     private String[] labels;
+    private int warmupIterations = 0, autoTuneMaxThreads = 0;
+    private AutoTuner.Result tuningResult;
+    private DiagnosticsMode diagnosticsMode = DiagnosticsMode.OFF;
+    private int diagnosticsSampleRate = 30;
+    private NonMaxSuppression nms;
+    private DetectionDecoder decoder;
+    private float[] inputNormalization;
+    private double gateThreshold = -1;
+    private long gateMaxStalenessMillis;
+    //Faster versions of the model for buildAdaptive(), a null model name means this builder's model resized
+    private final List<String> levelModels = new ArrayList<>();
+    private final List<int[]> levelSizes = new ArrayList<>();
 
     public TFODBuilder(HardwareMap map, String modelName, String... labels){
         this.map = map;
         this.modelName = modelName;
-        quantized = false;
-        options = new Interpreter.Options();
+        config = new InterpreterConfig();
         this.labels = labels;
-        options.setCancellable(true);
-        this.drawOnImage = true;
+        this.overlayMode = OverlayMode.FRAME;
     }
 
     /**
      * Sets if the model is quantized
      *
+     * Deprecated: the input type and quantization are read from the model itself, so this does nothing
+     *
      * Quantization of a model processes the model so that it uses integer inputs instead of floating point inputs
      * This speeds up inference on the model, but also (slightly) decreases accuracy
      */
+    @Deprecated
     public TFODBuilder setQuantized(boolean quantized){
-        this.quantized = quantized;
         return this;
     }
 
@@ -61,7 +80,20 @@ public class TFODBuilder {
      * The optimal number of threads may change depending on the model
      */
     public TFODBuilder setNumThreads(int numThreads){
-        this.options.setNumThreads(numThreads);
+        this.config.setNumThreads(numThreads);
+        return this;
+    }
+
+    /**
+     * Number of interpreters that are created for the model
+     *
+     * An interpreter can only run one frame at a time, so a detector shared between two camera pipelines has to take turns
+     * With a pool of interpreters, recognize() can run on several threads at once, each with its own interpreter
+     * The threads set with setNumThreads are split between the interpreters
+     * Default is 1
+     */
+    public TFODBuilder setInterpreterPoolSize(int poolSize){
+        this.config.setPoolSize(poolSize);
         return this;
     }
 
@@ -72,7 +104,7 @@ public class TFODBuilder {
      * This has the potential to run floating point (i.e non-quantized) models faster
      */
     public TFODBuilder useXNNPack(boolean xnnPack){
-        this.options.setUseXNNPACK(xnnPack);
+        this.config.setUseXNNPack(xnnPack);
         return this;
     }
 
@@ -84,7 +116,7 @@ public class TFODBuilder {
      * The FTC Control Hub seems to allow for NNAPI acceleration
      */
     public TFODBuilder useNNAPI(){ //TODO: Test if the FTC Control Hub supports NNAPI acceleration (initial tests seems it doesn't?)
-        this.options.setUseNNAPI(true);
+        this.config.setUseNNAPI(true);
         return this;
     }
 
@@ -96,7 +128,7 @@ public class TFODBuilder {
      * This is not supported on all devices but may give an advantage in inference time when used on a supported device
      */
     public TFODBuilder allowBufferHandleOutput(boolean allow){
-        this.options.setAllowBufferHandleOutput(allow);
+        this.config.setAllowBufferHandleOutput(allow);
         return this;
     }
 
@@ -116,8 +148,7 @@ public class TFODBuilder {
             delegateOptions.setPrecisionLossAllowed(false);
             delegateOptions.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
             delegateOptions.setQuantizedModelsAllowed(true);
-            GpuDelegate gpuDelegate = new GpuDelegate(delegateOptions);
-            options.addDelegate(gpuDelegate);
+            config.setGpuOptions(delegateOptions);
         } else {
             RobotLog.addGlobalWarningMessage("WARNING! GPU Acceleration is NOT supported on this device. Disabling GPU Acceleration.");
         }
@@ -127,10 +158,23 @@ public class TFODBuilder {
     /**
      * Sets if the API should draw detected objects on the input bitmap
      *
-     * Warning: Can slow performance if lots of rectangles are being drawn
+     * Same as setOverlayMode(OverlayMode.FRAME) or setOverlayMode(OverlayMode.OFF)
      */
     public TFODBuilder drawOnImage(boolean drawOnImage){
-        this.drawOnImage = drawOnImage;
+        this.overlayMode = drawOnImage ? OverlayMode.FRAME : OverlayMode.OFF;
+        return this;
+    }
+
+    /**
+     * Sets where detections are drawn
+     *
+     * FRAME draws onto the frame passed to recognize(), which is cheap but still happens on the camera thread
+     * VIEWPORT draws onto the camera preview from onDrawFrame instead (see DetectionOverlay), so the camera thread does no drawing at all
+     * Draw time is in the DRAW stage of the stats either way
+     * Default is FRAME
+     */
+    public TFODBuilder setOverlayMode(OverlayMode overlayMode){
+        this.overlayMode = overlayMode;
         return this;
     }
 
@@ -139,6 +183,7 @@ public class TFODBuilder {
      * TFOD can sometimes return a lot of garbage detections with really low scores
      * So this helps filter them out
      * Confidence should be a float between 0 and 1, wtih 1 being 100% confidence and 0 being 0%
+     * Results have to score above this, a result scoring exactly the min confidence is dropped
      * Default is 0.6 (60% confidence)
      */
     public TFODBuilder setMinResultConfidence(float minResultConfidence) {
@@ -146,7 +191,246 @@ public class TFODBuilder {
         return this;
     }
 
+    /**
+     * Sets how the output of the model is turned into boxes
+     *
+     * The default PostProcessDecoder is for models with the postprocess op built in, which is what TFOD exports
+     * Use SsdAnchorDecoder or YoloDecoder for models that output raw boxes, they are usually faster since NMS runs in Java instead
+     * Default is a PostProcessDecoder
+     */
+    public TFODBuilder setDecoder(DetectionDecoder decoder){
+        this.decoder = decoder;
+        return this;
+    }
+
+    /**
+     * Sets how pixels are normalized before they go into the model, each channel becomes (pixel - mean) / std
+     *
+     * The decoder already picks the one the models it reads are usually trained on, so this is only needed for models trained differently
+     * For example 0, 255 gives the model 0 to 1, and 127.5, 127.5 gives it -1 to 1. Integer models combine this with their input quantization
+     * Default is the decoder's: raw 0-255 pixels for float TFOD models, 0 to 1 for YoloDecoder and -1 to 1 for SsdAnchorDecoder
+     */
+    public TFODBuilder setInputNormalization(float mean, float std){
+        if(std == 0){
+            throw new IllegalArgumentException("Std can't be 0");
+        }
+        this.inputNormalization = new float[]{mean, std};
+        return this;
+    }
+
+    /**
+     * Removes overlapping duplicate boxes before results are returned
+     *
+     * Most TFOD models already do this inside the model, but raw output models and recognizeTiled can return the same object more then once
+     * This replaces the NMS of the SsdAnchorDecoder and YoloDecoder. Pass null to use the decoder's
+     * Default is off
+     */
+    public TFODBuilder setNonMaxSuppression(NonMaxSuppression nms){
+        this.nms = nms;
+        return this;
+    }
+
+    /**
+     * Skips the model when the frame has barely changed since the last time it ran, returning the last detections instead
+     *
+     * Saves a lot of CPU (and battery) while the robot sits still, like during init
+     * Only applies to recognize(Mat), the hit rate is available from getFrameChangeGate() on the detector
+     * @param threshold average difference per pixel (0-255) that counts as a change, 2 to 5 works for most cameras
+     * @param maxStalenessMillis the model is run at least this often, even if nothing changed
+     */
+    public TFODBuilder setFrameChangeGate(double threshold, long maxStalenessMillis){
+        this.gateThreshold = threshold;
+        this.gateMaxStalenessMillis = maxStalenessMillis;
+        return this;
+    }
+
+    /**
+     * Sets if the raw output of the model is written to the RobotLog
+     *
+     * Useful for figuring out why objects are not detected, since every candidate is logged even if it is below the min confidence
+     * Logs are written by a background thread, so this does not slow down inference
+     * Default is OFF
+     */
+    public TFODBuilder setDiagnostics(DiagnosticsMode diagnosticsMode){
+        this.diagnosticsMode = diagnosticsMode;
+        return this;
+    }
+
+    /**
+     * Logs the raw output of one frame out of every sampleRate frames
+     * Same as setDiagnostics(DiagnosticsMode.SAMPLED) with a custom sample rate, the default is every 30th frame
+     */
+    public TFODBuilder setDiagnostics(DiagnosticsMode diagnosticsMode, int sampleRate){
+        if(sampleRate < 1){
+            throw new IllegalArgumentException("Sample rate must be at least 1");
+        }
+        this.diagnosticsMode = diagnosticsMode;
+        this.diagnosticsSampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * Runs noise frames through the model when it is built
+     *
+     * The first few runs of a model are much slower then the rest, because TFLite sets a lot of things up lazily
+     * Warming up moves that to build(), so it does not happen during the start of autonomous
+     * Every interpreter in the pool is warmed up
+     * Default is 0 (no warm up)
+     */
+    public TFODBuilder warmUp(int iterations){
+        this.warmupIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Picks the fastest thread count and XNNPack setting when the model is built
+     *
+     * Every thread count from 1 to maxThreads is tried with XNNPack on and off, which makes build() take a while
+     * This overrides setNumThreads and useXNNPack. The timing of every configuration is in getTuningResult() and the RobotLog
+     * Tuning only happens on the first build(), later builds reuse the chosen configuration
+     */
+    public TFODBuilder autoTune(int maxThreads){
+        this.autoTuneMaxThreads = maxThreads;
+        return this;
+    }
+
+    /**
+     * Adds a faster quality level to buildAdaptive(), running this model at a smaller input size
+     *
+     * Only works for models that can be resized, which most YOLO exports and some SSD ones can. Models that can't fail at build
+     * Levels should be added from most to least accurate, and the model as it was exported is always the most accurate
+     */
+    public TFODBuilder addQualityLevel(int inputWidth, int inputHeight){
+        if(inputWidth <= 0 || inputHeight <= 0){
+            throw new IllegalArgumentException("Input size must be positive, got " + inputWidth + "x" + inputHeight);
+        }
+        levelModels.add(null);
+        levelSizes.add(new int[]{inputWidth, inputHeight});
+        return this;
+    }
+
+    /**
+     * Adds a faster quality level to buildAdaptive(), running a different model with the same labels
+     *
+     * Use this for models that can't be resized, with a smaller version of the model exported for each level
+     * Levels should be added from most to least accurate, and this builder's model is always the most accurate
+     */
+    public TFODBuilder addQualityLevel(String modelName){
+        levelModels.add(modelName);
+        levelSizes.add(null);
+        return this;
+    }
+
+    /**
+     * @return the timings measured by autoTune, or null if the model has not been tuned
+     */
+    public AutoTuner.Result getTuningResult(){
+        return tuningResult;
+    }
+
     public TensorObjectDetector build() throws IOException {
-        return new TensorObjectDetector(map, modelName, quantized, drawOnImage, minResultConfidence, options, labels);
+        return build(true);
+    }
+
+    /**
+     * @param gated false to leave out the frame change gate, for benchmarks that run the same frame over and over
+     */
+    TensorObjectDetector build(boolean gated) throws IOException {
+        tune();
+        return warmUp(create(modelName, 0, 0, decoder != null ? decoder : new PostProcessDecoder(), gated, null, null));
+    }
+
+    private void tune() throws IOException {
+        if(autoTuneMaxThreads > 0 && tuningResult == null){
+            tuningResult = AutoTuner.tune(config, autoTuneMaxThreads, Math.max(warmupIterations, MIN_TUNING_WARMUP), TUNING_ITERATIONS, new AutoTuner.Factory() {
+                @Override
+                public AutoTuner.Candidate build() throws IOException {
+                    //Tuning runs one noise frame over and over, which a gate would skip
+                    final TensorObjectDetector detector = create(modelName, 0, 0, decoder != null ? decoder : new PostProcessDecoder(), false, null, null);
+                    return new AutoTuner.Candidate() {
+                        @Override
+                        public void run(Mat frame) {
+                            detector.recognize(frame);
+                        }
+
+                        @Override
+                        public void close() {
+                            detector.close();
+                        }
+                    };
+                }
+            });
+        }
+    }
+
+    private TensorObjectDetector warmUp(TensorObjectDetector detector){
+        if(warmupIterations > 0){
+            try {
+                detector.warmUp(warmupIterations);
+            } catch (RuntimeException e) {
+                detector.close();
+                throw e;
+            }
+        }
+        return detector;
+    }
+
+    private TensorObjectDetector create(String modelName, int inputWidth, int inputHeight, DetectionDecoder decoder, boolean gated,
+                                        InferenceStats parentStats, DetectionOverlay sharedOverlay) throws IOException {
+        return new TensorObjectDetector(map, modelName, inputWidth, inputHeight, overlayMode, minResultConfidence, config, labels, diagnosticsMode, diagnosticsSampleRate,
+                decoder, inputNormalization, nms, gated && gateThreshold >= 0 ? new FrameChangeGate(gateThreshold, gateMaxStalenessMillis) : null, parentStats, sharedOverlay);
+    }
+
+    /**
+     * Builds a detector that switches between quality levels to keep every frame under a latency budget
+     *
+     * The model from this builder is the most accurate level, add faster ones with addQualityLevel()
+     * Every level is built (and warmed up, if set) now, so there is no pause when switching during a match
+     * All levels draw with one overlay and record into the adaptive detector's stats, as well as their own
+     * @param budgetMillis how long a frame can take, including preprocessing and drawing
+     */
+    public AdaptiveTensorObjectDetector buildAdaptive(long budgetMillis) throws IOException {
+        if(levelModels.isEmpty()){
+            throw new IllegalStateException("Add at least one quality level with addQualityLevel() before building an adaptive detector");
+        }
+        tune();
+        InferenceStats stats = new InferenceStats();
+        DetectionOverlay overlay = new DetectionOverlay(labels, stats);
+        List<TensorObjectDetector> levels = new ArrayList<>(levelModels.size() + 1);
+        List<String> names = new ArrayList<>(levelModels.size() + 1);
+        DetectionDecoder template = decoder != null ? decoder : new PostProcessDecoder();
+        try {
+            levels.add(warmUp(create(modelName, 0, 0, template, true, stats, overlay)));
+            names.add(modelName);
+            for(int i = 0; i < levelModels.size(); i ++){
+                String levelModel = levelModels.get(i);
+                int[] size = levelSizes.get(i);
+                //Every level is open at once, and decoders hold what they worked out from their model, so each gets its own
+                TensorObjectDetector detector = levelModel != null
+                        ? create(levelModel, 0, 0, template.copy(), true, stats, overlay)
+                        : create(modelName, size[0], size[1], template.copy(), true, stats, overlay);
+                levels.add(detector);
+                names.add(levelModel != null ? levelModel : modelName + " " + size[0] + "x" + size[1]);
+                if(warmupIterations > 0){
+                    detector.warmUp(warmupIterations);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for(TensorObjectDetector detector : levels){
+                detector.close();
+            }
+            throw e;
+        }
+        return new AdaptiveTensorObjectDetector(levels, names, new QualityController(levels.size(), budgetMillis * 1000000), stats, overlay);
+    }
+
+    /**
+     * Builds a detector that runs the model on its own thread
+     *
+     * Frames are passed with submit() which returns right away with the most recent detections
+     * This keeps the camera running at full speed even when the model is slower then the camera
+     */
+    public AsyncTensorObjectDetector buildAsync() throws IOException {
+        return new AsyncTensorObjectDetector(build());
     }
 }
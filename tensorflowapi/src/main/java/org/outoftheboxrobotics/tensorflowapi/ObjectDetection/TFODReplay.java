@@ -0,0 +1,47 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import android.graphics.RectF;
+
+import org.opencv.core.Mat;
+import org.outoftheboxrobotics.tensorflowapi.FrameReplay;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs a TensorObjectDetector on the frames of a FrameReplay
+ *
+ * Each frame's result is written as label confidence left top right bottom, one detection after another separated by ';'
+ * Boxes are rounded to whole pixels and confidence to 3 places, so small float differences between runs don't show up as changes
+ * Only recognize() is timed, results are formatted afterwards
+ */
+public class TFODReplay implements FrameReplay.Handler {
+    private final TensorObjectDetector detector;
+    private final StringBuilder builder = new StringBuilder();
+    private List<TensorObjectDetector.Detection> detections = Collections.emptyList();
+
+    public TFODReplay(TensorObjectDetector detector){
+        this.detector = detector;
+    }
+
+    @Override
+    public void process(Mat frame) {
+        detections = detector.recognize(frame);
+    }
+
+    @Override
+    public String getResult() {
+        builder.setLength(0);
+        for(int i = 0; i < detections.size(); i ++){
+            TensorObjectDetector.Detection detection = detections.get(i);
+            RectF location = detection.location;
+            if(i > 0){
+                builder.append(';');
+            }
+            builder.append(String.format(Locale.US, "%s %.3f %d %d %d %d", detection.title, detection.confidence,
+                    Math.round(location.left), Math.round(location.top), Math.round(location.right), Math.round(location.bottom)));
+        }
+        return builder.toString();
+    }
+}
@@ -1,7 +1,5 @@
 package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
 
-import android.content.res.AssetFileDescriptor;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -9,94 +7,142 @@ import android.graphics.Paint;
 import android.graphics.RectF;
 
 import com.qualcomm.robotcore.hardware.HardwareMap;
-import com.qualcomm.robotcore.util.RobotLog;
 
 import org.opencv.android.Utils;
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Point;
 import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.imgproc.Imgproc;
+import org.outoftheboxrobotics.tensorflowapi.FrameChangeGate;
+import org.outoftheboxrobotics.tensorflowapi.ImagePreprocessor;
+import org.outoftheboxrobotics.tensorflowapi.InferenceStats;
+import org.outoftheboxrobotics.tensorflowapi.InterpreterConfig;
+import org.outoftheboxrobotics.tensorflowapi.InterpreterPool;
+import org.outoftheboxrobotics.tensorflowapi.ModelRegistry;
+import org.outoftheboxrobotics.tensorflowapi.ResourceTracker;
+import org.outoftheboxrobotics.tensorflowapi.StatsSource;
 import org.outoftheboxrobotics.tensorflowapi.TensorProcessingException;
-import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.Tensor;
-import org.tensorflow.lite.support.common.ops.CastOp;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
-import org.tensorflow.lite.support.common.ops.QuantizeOp;
-import org.tensorflow.lite.support.image.ImageProcessor;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.image.ops.ResizeOp;
-
-import java.io.FileInputStream;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-
-public class TensorObjectDetector {
-    private final Interpreter interpreter;
-    private final boolean drawOnImage;
-    private boolean quantized;
-    private final int width, height, numDetections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class TensorObjectDetector implements StatsSource, AutoCloseable {
+    private final InterpreterPool<DetectorContext> pool;
+    private final InferenceStats stats;
+    private final Tensor inputTensor;
+    private final float inputMean, inputStd;
+    private final OverlayMode overlayMode;
+    private final DetectionOverlay overlay;
     private float minConfidence;
 
     private final String[] labels;
+    private final DetectionLog log;
+    private final String modelName, optionsKey;
+    private volatile boolean closed;
+    private final ResourceTracker.Handle resourceHandle;
+    private ExecutorService tileExecutor;
+
+    private static final NonMaxSuppression TILE_MERGE = new NonMaxSuppression().setIouThreshold(0.6f).setMatchSmallerBox(true);
+    private final NonMaxSuppression nms;
+    private final FrameChangeGate gate;
+    //What the frame change gate returns for unchanged frames. The list is built from the batch when recognizeInto() ran last
+    private volatile List<Detection> lastDetections = Collections.emptyList();
+    private final DetectionBatch lastBatch = new DetectionBatch();
+
+    private final DetectionDecoder decoder;
+    //The NMS run on every frame, from the builder or else the one the decoder needs
+    private final NonMaxSuppression frameNms;
 
-    private int locationsIndex = -1, classesIndex = -1, scoresIndex = -1, numDetectIndex = -1;
-
-    protected TensorObjectDetector(HardwareMap map, String modelName, boolean quantized, boolean drawOnImage, float minConfidence, Interpreter.Options options, String[] labels) throws IOException {
-        MappedByteBuffer model = loadModelFile(map.appContext.getAssets(), modelName);
-        this.quantized = quantized;
-
-        this.interpreter = new Interpreter(model, options);
-
-        this.width = this.interpreter.getInputTensor(0).shape()[1];
-        this.height = this.interpreter.getInputTensor(0).shape()[2];
-        this.numDetections = this.interpreter.getOutputTensor(0).shape()[1];
-
-        int count = this.interpreter.getOutputTensorCount();
-        for(int i = 0; i < count; i ++){
-            Tensor tensor = this.interpreter.getOutputTensor(i);
-            if(tensor.shape().length == 3){
-                locationsIndex = i;
+    /**
+     * @param inputWidth width to resize the model input to, or 0 to use the size the model was exported with
+     * @param inputHeight height to resize the model input to, or 0 to use the size the model was exported with
+     * @param inputNormalization mean and std to normalize input pixels with, or null to use the decoder's
+     * @param parentStats stats this detector's stats are also recorded into, or null
+     * @param sharedOverlay overlay to draw with, shared with other detectors, or null for the detector to make its own
+     */
+    protected TensorObjectDetector(HardwareMap map, String modelName, int inputWidth, int inputHeight, OverlayMode overlayMode, float minConfidence, InterpreterConfig config, String[] labels, DiagnosticsMode diagnosticsMode, int diagnosticsSampleRate, DetectionDecoder decoder, float[] inputNormalization, NonMaxSuppression nms,
+                                   FrameChangeGate gate, InferenceStats parentStats, DetectionOverlay sharedOverlay) throws IOException {
+        this.stats = new InferenceStats(parentStats);
+        //The registry keeps the model mapped between OpModes, so only the first detector pays for loading it
+        MappedByteBuffer model = ModelRegistry.acquire(map.appContext.getAssets(), modelName);
+        //Detection models always take one RGB image
+        int[] inputShape = inputWidth > 0 && inputHeight > 0 ? new int[]{1, inputHeight, inputWidth, 3} : null;
+        this.modelName = modelName;
+        this.optionsKey = ModelRegistry.getCacheKey(config, inputShape);
+
+        //Every interpreter in the pool reads the same mapped model
+        List<Interpreter> interpreters = new ArrayList<>(config.getPoolSize());
+        List<DetectorContext> contexts = new ArrayList<>(config.getPoolSize());
+        DetectionLog diagnosticsLog = null;
+        try {
+            for(int i = 0; i < config.getPoolSize(); i ++){
+                interpreters.add(ModelRegistry.createInterpreter(modelName, config, inputShape));
             }
-            if(tensor.shape().length == 1){
-                numDetectIndex = i;
+            Interpreter interpreter = interpreters.get(0);
+            this.inputTensor = interpreter.getInputTensor(0);
+
+            //Outputs are checked once here, so a model that does not fit the decoder or labels fails at init and not during a match
+            decoder.init(interpreter, model, labels.length);
+
+            //Every preprocessor of this detector, including the async, tiled and cascade ones, uses the same normalization
+            float[] normalization = inputNormalization != null ? inputNormalization : decoder.getInputNormalization(inputTensor.dataType());
+            this.inputMean = normalization[0];
+            this.inputStd = normalization[1];
+            for(Interpreter i : interpreters){
+                contexts.add(new DetectorContext(i, createPreprocessor(), decoder.getCapacityHint()));
             }
-            if(tensor.shape().length == 2){
-                //Two tensors have length 2, so we just kinda guess and let the algo figure it out later
-                if(classesIndex == -1){
-                    classesIndex = i;
-                }else{
-                    scoresIndex = i;
-                }
+            this.pool = new InterpreterPool<>(contexts);
+
+            this.labels = labels;
+            this.overlayMode = overlayMode;
+            this.overlay = sharedOverlay != null ? sharedOverlay : new DetectionOverlay(labels, stats);
+            this.minConfidence = minConfidence;
+            this.decoder = decoder;
+            this.nms = nms;
+            this.frameNms = nms != null ? nms : decoder.getNonMaxSuppression();
+            this.gate = gate;
+            if(diagnosticsMode != DiagnosticsMode.OFF){
+                diagnosticsLog = new DetectionLog(labels, diagnosticsMode == DiagnosticsMode.FULL ? 1 : diagnosticsSampleRate);
             }
-        }
+            this.log = diagnosticsLog;
 
-        //The number of bytes in the input tensor should equal the number of bytes to allocate
-        if(this.interpreter.getInputTensor(0).numBytes() != (this.width * this.height * 3 * (quantized ? 1 : 4))){
-            //Dang it, the user seems to have messed up quantization settings. Right now, the model is guaranteed to fail
-            //So we might as well attempt to change it to get the run to work
-            RobotLog.addGlobalWarningMessage("Warning! Quantization was not set correctly, changing settings to avoid error");
-            this.quantized = !this.quantized;
+            long nativeBytes = 0;
+            for(DetectorContext context : contexts){
+                nativeBytes += context.getNativeBytes();
+            }
+            this.resourceHandle = ResourceTracker.track(this, "TensorObjectDetector " + modelName, nativeBytes);
+        } catch (RuntimeException e) {
+            //close() can't be called on a detector that was never made, so everything taken so far is given back here
+            for(DetectorContext context : contexts){
+                context.release();
+            }
+            if(diagnosticsLog != null){
+                diagnosticsLog.stop();
+            }
+            if(gate != null){
+                gate.release();
+            }
+            ModelRegistry.release(modelName, optionsKey, interpreters);
+            throw e;
         }
-
-        this.labels = labels;
-        this.drawOnImage = drawOnImage;
-        this.minConfidence = minConfidence;
     }
 
     /**
      * Runs inference on a given image
      *
-     * This method IGNORES drawOnImage!
+     * This method IGNORES the overlay mode!
      *
      * DEPRECATED: Use recognize(Mat in) instead when possible
      * @param bitmap the image to run the model on
@@ -105,18 +151,345 @@ public class TensorObjectDetector {
     @Deprecated
     public List<Detection> recognize(Bitmap bitmap){
         Mat mat = new Mat();
-        Utils.bitmapToMat(bitmap, mat);
-        List<Detection> dets = recognize(mat);
-        mat.release();
-        return dets;
+        try {
+            Utils.bitmapToMat(bitmap, mat);
+            return recognize(mat);
+        } finally {
+            //Released even if inference throws, so a failing OpMode doesn't leak a frame of native memory per call
+            mat.release();
+        }
     }
 
     /**
      * Runs inference on a given image
+     *
+     * The detections are built from the same primitive results recognizeInto() fills, use that instead in loops that
+     * read the boxes often, since getLocation() copies the box every call
      * @param in the image to run the model on
      * @return a list of detected objects in the image
      */
     public List<Detection> recognize(Mat in){
+        checkFrameType(in);
+
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+
+        if(gate != null){
+            boolean changed = gate.shouldRun(in);
+            stats.record(InferenceStats.Stage.GATE, System.nanoTime() - start);
+            if(!changed){
+                //Nothing moved, the last result is still good
+                stats.recordSkipped();
+                List<Detection> cached = lastDetections;
+                if(cached == null){
+                    synchronized (lastBatch){
+                        cached = lastBatch.toDetections();
+                    }
+                    lastDetections = cached;
+                }
+                showDetections(in, cached);
+                return cached;
+            }
+        }
+
+        //Resizes and converts the frame straight into the input tensor
+        //We cannot strictly trust that the passed image is the right size, we we bilinear scale to the right dims
+        //We could add a crop or something along those lines here, but it would be faster and more efficient
+        //For the user to do so in EOCV before passing, since we do not know *where* they want to crop
+        //(recognizeTiled does this for small objects, with regions to say where)
+        //This is thread safe, each call checks out its own interpreter from the pool
+        List<Detection> detections;
+        DetectorContext context = acquireContext();
+        try {
+            long preprocessStart = System.nanoTime();
+            ByteBuffer input = context.preprocessor.process(in);
+            stats.record(InferenceStats.Stage.PREPROCESS, System.nanoTime() - preprocessStart);
+            detections = runInference(context, input, in.width(), in.height(), timestamp);
+            if(gate != null){
+                synchronized (lastBatch){
+                    lastBatch.copyFrom(context.batch);
+                }
+                lastDetections = detections;
+            }
+        } catch (RuntimeException e) {
+            if(gate != null){
+                //There is no result for this frame, so the next one has to run
+                gate.reset();
+            }
+            stats.recordDropped();
+            throw e;
+        } finally {
+            pool.release(context);
+        }
+
+        showDetections(in, detections);
+        stats.record(InferenceStats.Stage.TOTAL, System.nanoTime() - start);
+        stats.recordFrame();
+        return detections;
+    }
+
+    /**
+     * Runs inference on a given image, writing the detections into a batch instead of a list
+     *
+     * Same as recognize(Mat), but no Detection objects, strings or boxes are created, so a batch reused every frame
+     * keeps the control loop free of garbage
+     * @param in the image to run the model on
+     * @param out the batch to fill, anything in it is replaced
+     */
+    public void recognizeInto(Mat in, DetectionBatch out){
+        checkFrameType(in);
+
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+
+        if(gate != null){
+            boolean changed = gate.shouldRun(in);
+            stats.record(InferenceStats.Stage.GATE, System.nanoTime() - start);
+            if(!changed){
+                //Nothing moved, the last result is still good
+                stats.recordSkipped();
+                synchronized (lastBatch){
+                    out.copyFrom(lastBatch);
+                }
+                showDetections(in, out);
+                return;
+            }
+        }
+
+        DetectorContext context = acquireContext();
+        try {
+            long preprocessStart = System.nanoTime();
+            ByteBuffer input = context.preprocessor.process(in);
+            stats.record(InferenceStats.Stage.PREPROCESS, System.nanoTime() - preprocessStart);
+
+            long inferenceStart = System.nanoTime();
+            context.run(input);
+            long inferred = System.nanoTime();
+            stats.record(InferenceStats.Stage.INFERENCE, inferred - inferenceStart);
+            stats.recordNativeInference(context.interpreter);
+            decodeInto(context, in.width(), in.height(), timestamp, out);
+            stats.record(InferenceStats.Stage.POSTPROCESS, System.nanoTime() - inferred);
+
+            if(gate != null){
+                synchronized (lastBatch){
+                    lastBatch.copyFrom(out);
+                }
+                //Only built if recognize() needs it
+                lastDetections = null;
+            }
+        } catch (RuntimeException e) {
+            if(gate != null){
+                //There is no result for this frame, so the next one has to run
+                gate.reset();
+            }
+            stats.recordDropped();
+            throw e;
+        } finally {
+            pool.release(context);
+        }
+
+        showDetections(in, out);
+        stats.record(InferenceStats.Stage.TOTAL, System.nanoTime() - start);
+        stats.recordFrame();
+    }
+
+    /**
+     * Runs inference on overlapping tiles of a frame, instead of shrinking the whole frame down to the model size
+     *
+     * Small objects far from the camera can disappear when a 640x480 frame is shrunk to 300x300, tiling keeps them at full resolution
+     * Each tile is run separately, so this is slower then recognize() by about the number of tiles
+     * With an interpreter pool, tiles are run in parallel on up to one thread per interpreter
+     * Boxes are given in full frame coordinates, and duplicates from objects on tile seams are merged
+     * @param in the image to run the model on
+     * @param layout how to split the frame
+     * @return a list of detected objects in the image
+     */
+    public List<Detection> recognizeTiled(final Mat in, TileLayout layout){
+        checkFrameType(in);
+
+        long start = System.nanoTime();
+        final long timestamp = System.currentTimeMillis();
+        List<Rect> tiles = layout.getTiles(in.width(), in.height());
+
+        List<Detection> detections = new ArrayList<>();
+        try {
+            if(pool.size() == 1 || tiles.size() == 1){
+                for(Rect tile : tiles){
+                    detections.addAll(recognizeTile(in, tile, timestamp));
+                }
+            }else{
+                List<Future<List<Detection>>> results = new ArrayList<>(tiles.size());
+                for(final Rect tile : tiles){
+                    results.add(getTileExecutor().submit(new Callable<List<Detection>>() {
+                        @Override
+                        public List<Detection> call() {
+                            return recognizeTile(in, tile, timestamp);
+                        }
+                    }));
+                }
+                for(Future<List<Detection>> result : results){
+                    detections.addAll(getTileResult(result));
+                }
+            }
+        } catch (RuntimeException e) {
+            stats.recordDropped();
+            throw e;
+        }
+        detections = mergeTiles(detections);
+
+        showDetections(in, detections);
+        stats.record(InferenceStats.Stage.TOTAL, System.nanoTime() - start);
+        stats.recordFrame();
+        return detections;
+    }
+
+    private List<Detection> recognizeTile(Mat in, Rect tile, long timestamp){
+        //A submat shares the frame's pixels, nothing is copied
+        Mat region = in.submat(tile);
+        DetectorContext context = acquireContext();
+        try {
+            long start = System.nanoTime();
+            ByteBuffer input = context.preprocessor.process(region);
+            stats.record(InferenceStats.Stage.PREPROCESS, System.nanoTime() - start);
+
+            List<Detection> detections = runInference(context, input, tile.width, tile.height, timestamp);
+            for(Detection detection : detections){
+                detection.location.offset(tile.x, tile.y);
+            }
+            return detections;
+        } finally {
+            pool.release(context);
+            region.release();
+        }
+    }
+
+    private static List<Detection> getTileResult(Future<List<Detection>> result){
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TensorProcessingException("Tile inference failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TensorProcessingException("Interrupted while waiting for tile inference");
+        }
+    }
+
+    private synchronized ExecutorService getTileExecutor(){
+        if(tileExecutor == null){
+            tileExecutor = Executors.newFixedThreadPool(pool.size(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "TFOD Tiles");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return tileExecutor;
+    }
+
+    /**
+     * Removes duplicate detections of objects that were in more then one tile
+     *
+     * Objects cut by a seam get a smaller box in one tile, so unless NMS was set on the builder, overlap is measured
+     * against the smaller box instead of the union
+     */
+    private List<Detection> mergeTiles(List<Detection> detections){
+        DetectionCandidates candidates = new DetectionCandidates(detections.size());
+        for(int i = 0; i < detections.size(); i ++){
+            Detection detection = detections.get(i);
+            RectF location = detection.location;
+            candidates.add(location.left, location.top, location.right, location.bottom, detection.confidence, detection.labelIndex, i);
+        }
+
+        int kept = (nms != null ? nms : TILE_MERGE).apply(candidates, minConfidence);
+        List<Detection> merged = new ArrayList<>(kept);
+        for(int k = 0; k < kept; k ++){
+            merged.add(detections.get(candidates.rows[candidates.kept[k]]));
+        }
+        return merged;
+    }
+
+    /**
+     * Gives the interpreters and model back to the ModelRegistry and frees the native memory of the detector, it can't be used after this
+     *
+     * Waits for recognize() calls on other threads to finish, but no new ones should be started
+     * The detector can also be used in a try-with-resources block
+     */
+    @Override
+    public synchronized void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+
+        List<Interpreter> interpreters = new ArrayList<>(pool.size());
+        for(int i = 0; i < pool.size(); i ++){
+            DetectorContext context = pool.acquire();
+            context.release();
+            interpreters.add(context.interpreter);
+        }
+        if(log != null){
+            log.stop();
+        }
+        if(tileExecutor != null){
+            tileExecutor.shutdown();
+        }
+        if(gate != null){
+            gate.release();
+        }
+        ModelRegistry.release(modelName, optionsKey, interpreters);
+        ResourceTracker.release(resourceHandle);
+    }
+
+    /**
+     * @return the overlay that draws detections, call drawOnCanvas() on it from onDrawFrame when using OverlayMode.VIEWPORT
+     */
+    public DetectionOverlay getOverlay(){
+        return overlay;
+    }
+
+    /**
+     * @return the frame change gate set on the builder, which has the hit rate, or null if there is none
+     */
+    public FrameChangeGate getFrameChangeGate(){
+        return gate;
+    }
+
+    /**
+     * @return timings of each stage over the last few seconds, and frame counts since the detector was built
+     */
+    @Override
+    public InferenceStats.Snapshot getStats(){
+        return stats.snapshot();
+    }
+
+    /**
+     * @return number of frames that reused cached preprocessing steps, across every interpreter in the pool
+     */
+    public long getPreprocessingPlanHits(){
+        long hits = 0;
+        for(DetectorContext context : pool.getAll()){
+            hits += context.preprocessor.getPlanHits();
+        }
+        return hits;
+    }
+
+    /**
+     * @return number of frames that needed new preprocessing steps because the frame size or type changed
+     */
+    public long getPreprocessingPlanMisses(){
+        long misses = 0;
+        for(DetectorContext context : pool.getAll()){
+            misses += context.preprocessor.getPlanMisses();
+        }
+        return misses;
+    }
+
+    static void checkFrameType(Mat in){
         if(in.type() != CvType.CV_8UC3 && in.type() != CvType.CV_8UC4){
             //While some models *technically* have grayscale inputs
             //All official TFOD models require three channels of image input
@@ -126,156 +499,182 @@ public class TensorObjectDetector {
             //The specific type of mat is to prevent data casting type errors
             throw new TensorProcessingException("At this time only mats of type CV_8UC3 are supported");
         }
+    }
 
-        long timestamp = System.currentTimeMillis();
+    /**
+     * Creates a preprocessor with its own input buffer for this model
+     * Used to fill input buffers on a different thread then the one running inference
+     */
+    ImagePreprocessor createPreprocessor(){
+        return new ImagePreprocessor(inputTensor, inputMean, inputStd);
+    }
 
-        Mat in_32SC3 = new Mat();
-        if(in.channels() == 3) {
-            //Cast to integer type for processing
-            in.convertTo(in_32SC3, CvType.CV_32SC3);
-        }else{
-            //TFOD models do not process Alpha data, so we need to get rid of the fourth channel
-            //For some reason EOCV passes four channel mats even though most cameras
-            //Do not have an alpha channel ¯\_(ツ)_/¯
-            Imgproc.cvtColor(in, in_32SC3, Imgproc.COLOR_RGBA2RGB);
-            in_32SC3.convertTo(in_32SC3, CvType.CV_32SC3);
+    /**
+     * Runs the model on an already filled input buffer and converts the output to detections
+     * @param input an input buffer filled by an ImagePreprocessor from this detector
+     * @param frameWidth width of the original frame, detections are scaled to it
+     * @param frameHeight height of the original frame, detections are scaled to it
+     * @param timestamp the time the frame was taken
+     */
+    List<Detection> runInference(ByteBuffer input, int frameWidth, int frameHeight, long timestamp){
+        DetectorContext context = acquireContext();
+        try {
+            return runInference(context, input, frameWidth, frameHeight, timestamp);
+        } finally {
+            pool.release(context);
         }
+    }
 
-        int[] data = new int[(int) (in_32SC3.channels() * in_32SC3.total())];
-        in_32SC3.get(0, 0, data);
-
-        TensorImage image = new TensorImage(DataType.FLOAT32); //Load the data with FLOAT32 type
-        //For some reason, casting from FLOAT32 to UINT8 is slightly faster then the other way around on some devices
-
-        image.load(data, new int[]{in_32SC3.width(), in_32SC3.height(), in_32SC3.channels()}); //TF Size is width, height, channels
+    private List<Detection> runInference(DetectorContext context, ByteBuffer input, int frameWidth, int frameHeight, long timestamp){
+        //Run inference
+        long start = System.nanoTime();
+        context.run(input);
+        long inferred = System.nanoTime();
+        stats.record(InferenceStats.Stage.INFERENCE, inferred - start);
+        stats.recordNativeInference(context.interpreter);
+
+        List<Detection> detections = decode(context, frameWidth, frameHeight, timestamp);
+        stats.record(InferenceStats.Stage.POSTPROCESS, System.nanoTime() - inferred);
+        return detections;
+    }
 
-        ImageProcessor.Builder processorBuilder = new ImageProcessor.Builder()
-                .add(new ResizeOp(height, width, ResizeOp.ResizeMethod.BILINEAR));
-        //We cannot strictly trust that the passed image is the right size, we we bilinear scale to the right dims
-        //We could add a crop or something along those lines here, but it would be faster and more efficient
-        //For the user to do so in EOCV before passing, since we do not know *where* they want to crop
+    /**
+     * Converts the output buffers of a context that just ran into detections
+     */
+    List<Detection> decode(DetectorContext context, int frameWidth, int frameHeight, long timestamp){
+        decodeInto(context, frameWidth, frameHeight, timestamp, context.batch);
+        return context.batch.toDetections();
+    }
 
-        if(quantized){
-            processorBuilder.add(new QuantizeOp(127.5f, 127.5f)); //Quantization formula
-            processorBuilder.add(new CastOp(DataType.UINT8)); //QuantizeOp does not cast to int, need to do so here
+    /**
+     * Converts the output buffers of a context that just ran into a batch
+     */
+    void decodeInto(DetectorContext context, int frameWidth, int frameHeight, long timestamp, DetectionBatch out){
+        context.readOutputs();
+        //Boxes stay in primitive arrays until NMS has picked the ones to keep
+        DetectionCandidates candidates = context.candidates;
+        candidates.clear();
+        decoder.decode(context.outputs, frameWidth, frameHeight, minConfidence, candidates);
+
+        //Logging happens on the diagnostics thread, here we only copy the raw values over
+        long logFrame = log == null ? -1 : log.startFrame();
+        if(logFrame >= 0){
+            for(int i = 0; i < candidates.size; i ++){
+                log.add(logFrame, candidates.rows[i], candidates.classes[i], candidates.scores[i]);
+            }
         }
 
-        image = processorBuilder.build().process(image);
+        candidates.removeBelow(minConfidence);
+        int kept = frameNms != null ? frameNms.apply(candidates, minConfidence) : candidates.keepAll();
+        out.set(candidates, kept, labels, timestamp);
+    }
 
-        Object[] inputArray = {image.getBuffer()};
-        //TFOD expects an object array for multi-run, so we just wrap it here
+    /**
+     * Draws detections onto the frame or hands them to the viewport overlay, depending on the overlay mode
+     */
+    void showDetections(Mat in, List<Detection> detections){
+        if(overlayMode == OverlayMode.FRAME){
+            long drawStart = System.nanoTime();
+            overlay.draw(in, detections);
+            stats.record(InferenceStats.Stage.DRAW, System.nanoTime() - drawStart);
+        }else if(overlayMode == OverlayMode.VIEWPORT){
+            overlay.setLatest(detections);
+        }
+    }
 
-        //Copy output buffers into a tensorflow readable object map
-        float[][][] outputLocations = new float[1][numDetections][4];
-        float[][] outputClasses = new float[1][numDetections];
-        float[][] outputScores = new float[1][numDetections];
-        float[] numDetections = new float[1];
+    void showDetections(Mat in, DetectionBatch detections){
+        if(overlayMode == OverlayMode.FRAME){
+            long drawStart = System.nanoTime();
+            overlay.draw(in, detections);
+            stats.record(InferenceStats.Stage.DRAW, System.nanoTime() - drawStart);
+        }else if(overlayMode == OverlayMode.VIEWPORT){
+            overlay.setLatest(detections);
+        }
+    }
 
-        //TODO: Verify order of operations here or make output tensor assignment automatic
-        //This is the most common order of output tensors, but there have been models with different output tensor orders
-        Map<Integer, Object> outputMap = new HashMap<>();
-        outputMap.put(locationsIndex, outputLocations);
-        outputMap.put(classesIndex, outputClasses);
-        outputMap.put(scoresIndex, outputScores);
-        outputMap.put(numDetectIndex, numDetections);
+    /**
+     * Draws detections onto a frame
+     */
+    void drawDetections(Mat in, List<Detection> detections){
+        overlay.draw(in, detections);
+    }
 
-        //Run inference
-        interpreter.runForMultipleInputsOutputs(inputArray, outputMap);
-
-        //Only process the number of outputs found by the model since some models will return less then numDetections detections
-        //Uses min because some models will return null detections greater then numDetections
-        int numDetectionsOutput = Math.min(this.numDetections, (int) numDetections[0]);
-
-        float[][] tmp;
-        float maxClass = 0, maxScore = 0;
-        boolean checkScores = false, swap = true;
-        for(int i = 0; i < numDetectionsOutput; i ++){
-            if(outputClasses[0][i] >= labels.length){
-                //There are two possibilities here
-                //Either the user inputted the wrong number of labels (possible)
-                //Or the output classes and scores somehow got switched (also possible)
-                //Unfortunately this means we need to loop through the other list to check them too
-                checkScores = true;
-                maxClass = Math.max(maxClass, outputClasses[0][i]);
+    /**
+     * Runs noise frames through every interpreter in the pool
+     *
+     * The first few runs of an interpreter are slow because of lazy tensor allocation, XNNPack weight packing and delegate setup
+     * Nothing is recorded in the stats
+     */
+    void warmUp(int iterations){
+        //EOCV frames are RGBA, and 640x480 is the most common camera size
+        Mat frame = new Mat(480, 640, CvType.CV_8UC4);
+        Core.randu(frame, 0, 256);
+        List<DetectorContext> contexts = new ArrayList<>(pool.size());
+        try {
+            //Taking every context at once makes sure each interpreter gets warmed up
+            for(int i = 0; i < pool.size(); i ++){
+                contexts.add(acquireContext());
             }
-            if(outputScores[0][i] >= labels.length){
-                swap = false;
-                maxScore = Math.max(maxScore, outputScores[0][i]);
+            for(DetectorContext context : contexts){
+                for(int i = 0; i < iterations; i ++){
+                    context.run(context.preprocessor.process(frame));
+                    decode(context, frame.width(), frame.height(), 0);
+                }
+            }
+        } finally {
+            for(DetectorContext context : contexts){
+                pool.release(context);
             }
+            frame.release();
         }
+    }
 
-        if(checkScores && swap){
-            //Swapping scores and classes should fix things
-            tmp = outputClasses;
-            outputClasses = outputScores;
-            outputScores = tmp;
-        }
-        if(checkScores && !swap){
-            //Sigh, they didn't give us the right amount of labels
-            //Technically, we don't know how many labels there should be
-            //So we give both numbers and let them figure it out
-            throw new TensorProcessingException("Processing output failed. Is the number of labels passed correct? Expected either " + maxClass + " or " + maxScore + " labels!");
-        }
-
-        final ArrayList<Detection> detections = new ArrayList<>(numDetectionsOutput);
-        for (int i = 0; i < numDetectionsOutput; ++i) {
-            RobotLog.ii("TFLite", ""+outputScores[0][i] + " | " + outputClasses[0][i]);
-            if(outputScores[0][i] > minConfidence) {
-                //TF outputs location as a number from 0-{INPUT_WIDTH} for width and height, most TF apis scale this to the internal model size
-                //I.E 300x300, but this does not make sense in this context, so we scale them to the input image size
-                final RectF detection = new RectF(
-                        (outputLocations[0][i][1] / width) * in.width(),
-                        (outputLocations[0][i][0] / height) * in.height(),
-                        (outputLocations[0][i][3] / width) * in.width(),
-                        (outputLocations[0][i][2] / height) * in.height());
-
-                detections.add(
-                        new Detection(
-                                "" + i, labels[((int) outputClasses[0][i])], outputScores[0][i], detection, timestamp));
-                if (drawOnImage) {
-                    Rect r = new Rect(
-                            new Point((detection.right), (detection.top)),
-                            new Point((detection.left), (detection.bottom))
-                    );
-                    //Neon green, most likely colour to both stand out
-                    //And not be used on the field
-                    Imgproc.rectangle(in, r, new Scalar(57, 255, 20));
-                    Imgproc.putText(in, labels[((int) outputClasses[0][i])] + " " + ((int)(outputScores[0][i] * 100)) + "%", new Point(detection.centerX(), detection.centerY()), Imgproc.FONT_HERSHEY_COMPLEX, 0.4, new Scalar(57, 255, 20));
-                }
-            }
+    /**
+     * Checks out an interpreter for running the stages by hand, it must be given back with releaseContext()
+     */
+    DetectorContext acquireContext(){
+        if(closed){
+            throw new IllegalStateException("TensorObjectDetector has been closed");
         }
+        return pool.acquire();
+    }
 
-        in_32SC3.release();
-        return detections;
+    void releaseContext(DetectorContext context){
+        pool.release(context);
+    }
+
+    InferenceStats getInferenceStats(){
+        return stats;
     }
 
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
-            throws IOException {
-        AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = fileDescriptor.getStartOffset();
-        long declaredLength = fileDescriptor.getDeclaredLength();
-        //Could this be streamed on the fly for branched models?
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    boolean isDrawOnImage(){
+        return overlayMode == OverlayMode.FRAME;
     }
 
     public static class Detection {
         private final String id;
 
-        private final String title;
+        //Read directly by the overlay, which should not copy the box every frame
+        final String title;
+        //Index of the title in the labels, or -1 if the detection was not made by a detector
+        final int labelIndex;
 
-        private final Float confidence;
+        final Float confidence;
 
-        private RectF location;
+        RectF location;
 
 
         private final long imageTimestamp;
 
         public Detection(
                 final String id, final String title, final Float confidence, final RectF location, long imageTimestamp) {
+            this(id, title, -1, confidence, location, imageTimestamp);
+        }
+
+        Detection(String id, String title, int labelIndex, Float confidence, RectF location, long imageTimestamp) {
             this.id = id;
             this.title = title;
+            this.labelIndex = labelIndex;
             this.confidence = confidence;
             this.location = location;
             this.imageTimestamp = imageTimestamp;
@@ -289,6 +688,13 @@ public class TensorObjectDetector {
             return title;
         }
 
+        /**
+         * @return index of the title in the labels given to the builder, or -1 if the detection was not made by a detector
+         */
+        public int getLabelIndex() {
+            return labelIndex;
+        }
+
         public Float getConfidence() {
             return confidence;
         }
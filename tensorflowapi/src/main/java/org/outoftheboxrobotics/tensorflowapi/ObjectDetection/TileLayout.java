@@ -0,0 +1,93 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a frame is split into tiles for TensorObjectDetector.recognizeTiled
+ *
+ * Each region (or the whole frame, if no regions are added) is split into a grid of overlapping tiles
+ * Pick the grid so tiles come out close to the model's input size, for example a 2x2 grid on a 640x480 frame for a 300x300 model
+ * Objects on a seam show up in more then one tile, so tiles overlap and the duplicates are merged afterwards
+ */
+public class TileLayout {
+    private final int columns, rows;
+    private final double overlap;
+    private final List<Rect> regions = new ArrayList<>();
+
+    //Tiles only change when the frame size does, so they are computed once
+    private int cachedWidth = -1, cachedHeight = -1;
+    private List<Rect> cachedTiles;
+
+    /**
+     * @param columns number of tiles across each region
+     * @param rows number of tiles down each region
+     * @param overlap how much neighbouring tiles overlap, as a fraction of the tile size, from 0 to 0.5
+     */
+    public TileLayout(int columns, int rows, double overlap){
+        if(columns < 1 || rows < 1){
+            throw new IllegalArgumentException("A tile layout needs at least one column and row");
+        }
+        if(overlap < 0 || overlap > 0.5){
+            throw new IllegalArgumentException("Tile overlap must be between 0 and 0.5, got " + overlap);
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Only tiles this part of the frame, for when objects can only be in some places (like the far half of the field)
+     * Can be called more then once, each region gets its own grid of tiles
+     */
+    public synchronized TileLayout addRegion(Rect region){
+        regions.add(new Rect(region.x, region.y, region.width, region.height));
+        cachedTiles = null;
+        return this;
+    }
+
+    /**
+     * @return the tiles for a frame of this size, clipped to the frame
+     */
+    synchronized List<Rect> getTiles(int frameWidth, int frameHeight){
+        if(cachedTiles != null && cachedWidth == frameWidth && cachedHeight == frameHeight){
+            return cachedTiles;
+        }
+
+        List<Rect> tiles = new ArrayList<>();
+        if(regions.isEmpty()){
+            addTiles(tiles, 0, 0, frameWidth, frameHeight);
+        }else{
+            for(Rect region : regions){
+                int left = Math.max(0, region.x), top = Math.max(0, region.y);
+                int right = Math.min(frameWidth, region.x + region.width), bottom = Math.min(frameHeight, region.y + region.height);
+                if(right > left && bottom > top){
+                    addTiles(tiles, left, top, right - left, bottom - top);
+                }
+            }
+        }
+
+        cachedTiles = Collections.unmodifiableList(tiles);
+        cachedWidth = frameWidth;
+        cachedHeight = frameHeight;
+        return cachedTiles;
+    }
+
+    private void addTiles(List<Rect> tiles, int x, int y, int width, int height){
+        //n tiles of size t overlapping by o*t cover t * (n - (n - 1) * o)
+        double tileWidth = width / (columns - (columns - 1) * overlap);
+        double tileHeight = height / (rows - (rows - 1) * overlap);
+        for(int row = 0; row < rows; row ++){
+            int top = y + (int) Math.round(row * tileHeight * (1 - overlap));
+            int bottom = Math.min(y + height, (int) Math.round(top + tileHeight));
+            for(int column = 0; column < columns; column ++){
+                int left = x + (int) Math.round(column * tileWidth * (1 - overlap));
+                int right = Math.min(x + width, (int) Math.round(left + tileWidth));
+                tiles.add(new Rect(left, top, right - left, bottom - top));
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.outoftheboxrobotics.tensorflowapi.TensorProcessingException;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decoder for YOLO models
+ *
+ * Two kinds of export are supported:
+ *  Flat: one output with a row of center x, center y, width, height, (objectness), and class scores for every box
+ *        YOLOv5 style [1, boxes, 5 + classes] and YOLOv8 style [1, 4 + classes, boxes] are both detected from the shape
+ *  Grid: raw head outputs [1, grid height, grid width, anchors * (5 + classes)], one per scale, used by tiny/nano darknet models
+ *        Set the anchors with setAnchors() to use this
+ *
+ * Usage:
+ * <pre>
+ * new TFODBuilder(hardwareMap, "yolov8n.tflite", "Label 1", "Label 2")
+ *         .setDecoder(new YoloDecoder())
+ *         .build();
+ * </pre>
+ */
+public class YoloDecoder extends DetectionDecoder {
+    private NonMaxSuppression nms = new NonMaxSuppression().setIouThreshold(0.45f);
+    private boolean sigmoid = false, normalized = true;
+    private float[][] gridAnchors;
+
+    private int labelCount, inputWidth, inputHeight;
+    //Flat outputs
+    private int numBoxes, attributes;
+    private boolean objectness, columns;
+    //Grid outputs, one entry per output
+    private int[] gridWidths, gridHeights, anchorsPerCell;
+
+    /**
+     * Sets the NMS applied to the decoded boxes, used unless one is set on the builder
+     * Default is class aware with an IOU threshold of 0.45
+     */
+    public YoloDecoder setNonMaxSuppression(NonMaxSuppression nms){
+        this.nms = nms;
+        return this;
+    }
+
+    /**
+     * Sets if a flat output has raw logits that still need a sigmoid
+     * Most exports (like ultralytics) already apply it, grid outputs always get a sigmoid
+     * Default is false
+     */
+    public YoloDecoder setSigmoid(boolean sigmoid){
+        this.sigmoid = sigmoid;
+        return this;
+    }
+
+    /**
+     * Sets if the boxes of a flat output are 0-1, instead of pixels of the model input
+     * Default is true
+     */
+    public YoloDecoder setNormalizedCoordinates(boolean normalized){
+        this.normalized = normalized;
+        return this;
+    }
+
+    /**
+     * Uses raw grid outputs, with the anchors of each output as width, height pairs in model input pixels
+     * Anchors are matched to outputs in the order the model has them, for example for YOLOv3 tiny (13x13 output first):
+     * setAnchors(new float[]{81, 82, 135, 169, 344, 319}, new float[]{10, 14, 23, 27, 37, 58})
+     */
+    public YoloDecoder setAnchors(float[]... anchors){
+        this.gridAnchors = anchors;
+        return this;
+    }
+
+    /**
+     * YOLO exports (ultralytics and darknet) are trained on 0-1 pixels
+     */
+    @Override
+    float[] getInputNormalization(DataType inputType){
+        return new float[]{0, 255};
+    }
+
+    @Override
+    void init(Interpreter interpreter, ByteBuffer model, int labelCount){
+        checkFloatOutputs(interpreter);
+        this.labelCount = labelCount;
+        int[] input = interpreter.getInputTensor(0).shape();
+        this.inputHeight = input[1];
+        this.inputWidth = input[2];
+
+        if(gridAnchors != null){
+            initGrid(interpreter);
+        }else{
+            initFlat(interpreter);
+        }
+    }
+
+    private void initFlat(Interpreter interpreter){
+        if(interpreter.getOutputTensorCount() != 1 || interpreter.getOutputTensor(0).shape().length != 3){
+            throw new TensorProcessingException("Expected a YOLO model with one [1, boxes, attributes] output, set the anchors for models with grid outputs");
+        }
+        int[] shape = interpreter.getOutputTensor(0).shape();
+        if(shape[2] == labelCount + 5 || shape[2] == labelCount + 4){
+            columns = false;
+            numBoxes = shape[1];
+            attributes = shape[2];
+        }else if(shape[1] == labelCount + 5 || shape[1] == labelCount + 4){
+            columns = true;
+            numBoxes = shape[2];
+            attributes = shape[1];
+        }else{
+            throw new TensorProcessingException("The model output is " + shape[1] + "x" + shape[2] + ", which does not fit " + labelCount + " labels, is the number of labels passed correct?");
+        }
+        objectness = attributes == labelCount + 5;
+    }
+
+    private void initGrid(Interpreter interpreter){
+        int outputs = interpreter.getOutputTensorCount();
+        if(outputs != gridAnchors.length){
+            throw new TensorProcessingException("The model has " + outputs + " outputs but anchors were given for " + gridAnchors.length);
+        }
+        gridWidths = new int[outputs];
+        gridHeights = new int[outputs];
+        anchorsPerCell = new int[outputs];
+        for(int i = 0; i < outputs; i ++){
+            int[] shape = interpreter.getOutputTensor(i).shape();
+            int perCell = gridAnchors[i].length / 2;
+            if(shape.length != 4 || shape[3] != perCell * (labelCount + 5)){
+                throw new TensorProcessingException("Output " + i + " should be [1, height, width, " + perCell * (labelCount + 5) + "] for "
+                        + perCell + " anchors and " + labelCount + " labels, is the number of labels passed correct?");
+            }
+            gridHeights[i] = shape[1];
+            gridWidths[i] = shape[2];
+            anchorsPerCell[i] = perCell;
+        }
+    }
+
+    @Override
+    void decode(float[][] outputs, int frameWidth, int frameHeight, float minScore, DetectionCandidates candidates){
+        if(gridAnchors != null){
+            decodeGrid(outputs, frameWidth, frameHeight, minScore, candidates);
+        }else if(columns){
+            decodeColumns(outputs[0], frameWidth, frameHeight, minScore, candidates);
+        }else{
+            decodeRows(outputs[0], frameWidth, frameHeight, minScore, candidates);
+        }
+    }
+
+    /**
+     * YOLOv5 style, each box is one contiguous row
+     */
+    private void decodeRows(float[] output, int frameWidth, int frameHeight, float minScore, DetectionCandidates candidates){
+        //Sigmoid never changes which logit is biggest, so thresholds are compared to logits and only survivors get a sigmoid
+        float threshold = sigmoid ? logit(minScore) : minScore;
+        int firstClass = objectness ? 5 : 4;
+        for(int i = 0; i < numBoxes; i ++){
+            int row = i * attributes;
+            //Objectness times class score can't be above objectness, so most boxes are skipped without looking at classes
+            if(objectness && output[row + 4] <= threshold){
+                continue;
+            }
+            int best = 0;
+            float bestValue = output[row + firstClass];
+            for(int c = 1; c < labelCount; c ++){
+                float value = output[row + firstClass + c];
+                if(value > bestValue){
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            float score = sigmoid ? sigmoid(bestValue) : bestValue;
+            if(objectness){
+                score *= sigmoid ? sigmoid(output[row + 4]) : output[row + 4];
+            }
+            if(score > minScore){
+                addBox(output[row], output[row + 1], output[row + 2], output[row + 3], score, best, i, frameWidth, frameHeight, candidates);
+            }
+        }
+    }
+
+    /**
+     * YOLOv8 style, each attribute is one contiguous row, so classes are compared a whole row at a time
+     * The inner loops run straight through memory, which the JIT can unroll and vectorize
+     */
+    private void decodeColumns(float[] output, int frameWidth, int frameHeight, float minScore, DetectionCandidates candidates){
+        int n = numBoxes;
+        int firstClass = objectness ? 5 : 4;
+        float[] bestValues = candidates.scratchScores(n);
+        int[] bestClasses = candidates.scratchClasses(n);
+
+        System.arraycopy(output, firstClass * n, bestValues, 0, n);
+        Arrays.fill(bestClasses, 0, n, 0);
+        for(int c = 1; c < labelCount; c ++){
+            int offset = (firstClass + c) * n;
+            for(int i = 0; i < n; i ++){
+                float value = output[offset + i];
+                if(value > bestValues[i]){
+                    bestValues[i] = value;
+                    bestClasses[i] = c;
+                }
+            }
+        }
+
+        float threshold = sigmoid ? logit(minScore) : minScore;
+        for(int i = 0; i < n; i ++){
+            float bestValue = bestValues[i];
+            if(bestValue <= threshold){
+                continue;
+            }
+            float score = sigmoid ? sigmoid(bestValue) : bestValue;
+            if(objectness){
+                float value = output[4 * n + i];
+                score *= sigmoid ? sigmoid(value) : value;
+            }
+            if(score > minScore){
+                addBox(output[i], output[n + i], output[2 * n + i], output[3 * n + i], score, bestClasses[i], i, frameWidth, frameHeight, candidates);
+            }
+        }
+    }
+
+    private void addBox(float centerX, float centerY, float boxWidth, float boxHeight, float score, int detectedClass, int row,
+                        int frameWidth, int frameHeight, DetectionCandidates candidates){
+        float scaleX = normalized ? frameWidth : (float) frameWidth / inputWidth;
+        float scaleY = normalized ? frameHeight : (float) frameHeight / inputHeight;
+        candidates.add(
+                (centerX - boxWidth / 2) * scaleX,
+                (centerY - boxHeight / 2) * scaleY,
+                (centerX + boxWidth / 2) * scaleX,
+                (centerY + boxHeight / 2) * scaleY,
+                score, detectedClass, row);
+    }
+
+    private void decodeGrid(float[][] outputs, int frameWidth, int frameHeight, float minScore, DetectionCandidates candidates){
+        //Objectness is checked as a logit first, it is above the final score so it rejects almost every cell cheaply
+        float threshold = logit(minScore);
+        int attributes = labelCount + 5;
+        int row = 0;
+        for(int k = 0; k < outputs.length; k ++){
+            float[] output = outputs[k];
+            float[] anchors = gridAnchors[k];
+            int gridWidth = gridWidths[k], gridHeight = gridHeights[k], perCell = anchorsPerCell[k];
+
+            for(int y = 0; y < gridHeight; y ++){
+                for(int x = 0; x < gridWidth; x ++){
+                    for(int a = 0; a < perCell; a ++, row ++){
+                        int base = ((y * gridWidth + x) * perCell + a) * attributes;
+                        if(output[base + 4] <= threshold){
+                            continue;
+                        }
+                        int best = 0;
+                        float bestValue = output[base + 5];
+                        for(int c = 1; c < labelCount; c ++){
+                            float value = output[base + 5 + c];
+                            if(value > bestValue){
+                                bestValue = value;
+                                best = c;
+                            }
+                        }
+                        float score = sigmoid(output[base + 4]) * sigmoid(bestValue);
+                        if(score <= minScore){
+                            continue;
+                        }
+
+                        float centerX = (sigmoid(output[base]) + x) / gridWidth;
+                        float centerY = (sigmoid(output[base + 1]) + y) / gridHeight;
+                        float halfW = (float) Math.exp(output[base + 2]) * anchors[a * 2] / inputWidth / 2;
+                        float halfH = (float) Math.exp(output[base + 3]) * anchors[a * 2 + 1] / inputHeight / 2;
+                        candidates.add(
+                                (centerX - halfW) * frameWidth,
+                                (centerY - halfH) * frameHeight,
+                                (centerX + halfW) * frameWidth,
+                                (centerY + halfH) * frameHeight,
+                                score, best, row);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    NonMaxSuppression getNonMaxSuppression(){
+        return nms;
+    }
+
+    @Override
+    int getCapacityHint(){
+        //Only a small fraction of boxes pass the threshold
+        return 64;
+    }
+}
@@ -0,0 +1,153 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+/**
+ * Picks between quality levels of a model to keep frame times under a budget
+ *
+ * Level 0 is the most accurate (and slowest), every level after it should be faster then the one before
+ * Frame times are smoothed, and once they are over budget the controller moves to the next faster level
+ * When there is plenty of headroom it tries the next more accurate level again. If that one goes over budget right away,
+ * it waits twice as long before trying again, so a model that just doesn't fit is not retried every second
+ *
+ * Used by TFODBuilder.buildAdaptive(), all methods are thread safe
+ */
+public class QualityController {
+    //How much each frame moves the average, lower is smoother but slower to react
+    private static final double SMOOTHING = 0.2;
+    private static final int MAX_PROBE_BACKOFF = 32;
+
+    private final int levels;
+    private final long budgetNanos;
+    private double headroom = 0.7;
+    private int settleFrames = 10, probeFrames = 30;
+
+    private int level;
+    private double average = -1;
+    private int framesAtLevel, probeInterval = probeFrames;
+    private boolean probing;
+    private long switches;
+
+    /**
+     * @param levels number of quality levels
+     * @param budgetNanos frame time to stay under
+     */
+    public QualityController(int levels, long budgetNanos){
+        if(levels < 1){
+            throw new IllegalArgumentException("There must be at least one quality level");
+        }
+        if(budgetNanos <= 0){
+            throw new IllegalArgumentException("Latency budget must be positive");
+        }
+        this.levels = levels;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Moves to a more accurate level once frames take less then this fraction of the budget
+     * Going up a level usually costs a lot more then a few percent, so this should leave room for it
+     * Default is 0.7
+     */
+    public synchronized QualityController setHeadroom(double headroom){
+        if(headroom <= 0 || headroom >= 1){
+            throw new IllegalArgumentException("Headroom must be between 0 and 1");
+        }
+        this.headroom = headroom;
+        return this;
+    }
+
+    /**
+     * Frames to run at a level before judging it, so one slow frame right after a switch does not switch again
+     * Default is 10
+     */
+    public synchronized QualityController setSettleFrames(int settleFrames){
+        if(settleFrames < 1){
+            throw new IllegalArgumentException("Settle frames must be at least 1");
+        }
+        this.settleFrames = settleFrames;
+        return this;
+    }
+
+    /**
+     * Frames to wait at a level with headroom before trying the more accurate one, doubled every time that try fails
+     * Default is 30
+     */
+    public synchronized QualityController setProbeFrames(int probeFrames){
+        if(probeFrames < 1){
+            throw new IllegalArgumentException("Probe frames must be at least 1");
+        }
+        this.probeFrames = probeFrames;
+        this.probeInterval = probeFrames;
+        return this;
+    }
+
+    /**
+     * @return the level the next frame should run at
+     */
+    public synchronized int getLevel(){
+        return level;
+    }
+
+    public int getLevelCount(){
+        return levels;
+    }
+
+    public long getBudgetNanos(){
+        return budgetNanos;
+    }
+
+    /**
+     * @return smoothed frame time at the current level, or -1 if no frame has run at it yet
+     */
+    public synchronized long getAverageNanos(){
+        return (long) average;
+    }
+
+    /**
+     * @return number of times the level changed
+     */
+    public synchronized long getSwitchCount(){
+        return switches;
+    }
+
+    /**
+     * Records how long a frame took
+     * @param frameLevel the level the frame ran at, frames from a level that was already switched away from are ignored
+     * @return true if the level changed
+     */
+    public synchronized boolean record(int frameLevel, long nanos){
+        if(frameLevel != level){
+            return false;
+        }
+        average = average < 0 ? nanos : average + SMOOTHING * (nanos - average);
+        framesAtLevel ++;
+        if(framesAtLevel < settleFrames){
+            return false;
+        }
+
+        if(average > budgetNanos && level < levels - 1){
+            if(probing){
+                //The more accurate level was just tried and does not fit, wait longer before the next try
+                probeInterval = Math.min(probeInterval * 2, probeFrames * MAX_PROBE_BACKOFF);
+            }
+            switchTo(level + 1, false);
+            return true;
+        }
+        if(probing){
+            //Made it past settling, this level fits
+            probing = false;
+            probeInterval = probeFrames;
+        }
+        if(average < budgetNanos * headroom && level > 0 && framesAtLevel >= probeInterval){
+            switchTo(level - 1, true);
+            return true;
+        }
+        return false;
+    }
+
+    private void switchTo(int newLevel, boolean up){
+        level = newLevel;
+        probing = up;
+        average = -1;
+        framesAtLevel = 0;
+        switches ++;
+    }
+}
@@ -0,0 +1,142 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Debug tool that finds detectors and classifiers that were never closed
+ *
+ * While enabled, every detector and classifier is recorded when it is built, along with where it was built and how much
+ * native memory (input and output buffers) it holds. Closing it removes the record. If one is garbage collected without
+ * being closed, a warning with the place it was built is written to the RobotLog
+ *
+ * Usage, at the start of an OpMode:
+ * <pre>
+ * ResourceTracker.setEnabled(true);
+ * ...
+ * telemetry.addLine(ResourceTracker.report());
+ * </pre>
+ *
+ * Recording captures a stack trace, so leave this off in competition code. Default is off
+ */
+public final class ResourceTracker {
+    private static final String TAG = "ResourceTracker";
+
+    private static volatile boolean enabled = false;
+    private static final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    //Handles are held here so they stay alive long enough to be queued when their owner is collected
+    private static final Set<Handle> open = new HashSet<>();
+    private static long leaks;
+
+    private ResourceTracker(){}
+
+    public static void setEnabled(boolean enabled){
+        ResourceTracker.enabled = enabled;
+    }
+
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Records a resource, does nothing if tracking is off
+     * @param owner the object that has to be closed
+     * @param nativeBytes native memory held by the owner
+     * @return the handle to pass to release(), or null if tracking is off
+     */
+    public static Handle track(Object owner, String name, long nativeBytes){
+        if(!enabled){
+            return null;
+        }
+        Handle handle = new Handle(owner, name, nativeBytes);
+        synchronized (ResourceTracker.class){
+            pollCollected();
+            open.add(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Removes a record, call when the owner is closed
+     * @param handle the handle from track(), can be null
+     */
+    public static synchronized void release(Handle handle){
+        if(handle != null){
+            open.remove(handle);
+            handle.clear();
+        }
+    }
+
+    /**
+     * @return number of tracked resources that have not been closed, including leaked ones that have not been collected yet
+     */
+    public static synchronized int getOpenCount(){
+        pollCollected();
+        return open.size();
+    }
+
+    /**
+     * @return native bytes held by tracked resources that have not been closed
+     */
+    public static synchronized long getNativeBytes(){
+        pollCollected();
+        long bytes = 0;
+        for(Handle handle : open){
+            bytes += handle.nativeBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of resources that were garbage collected without being closed
+     */
+    public static synchronized long getLeakCount(){
+        pollCollected();
+        return leaks;
+    }
+
+    /**
+     * @return a line for every resource that is still open, for telemetry or the log
+     */
+    public static synchronized String report(){
+        pollCollected();
+        StringBuilder builder = new StringBuilder();
+        long bytes = 0;
+        for(Handle handle : open){
+            bytes += handle.nativeBytes;
+        }
+        builder.append(String.format(Locale.US, "open=%d native=%dKB leaked=%d", open.size(), bytes / 1024, leaks));
+        for(Handle handle : open){
+            builder.append('\n').append(handle.name).append(" (").append(handle.nativeBytes / 1024).append("KB)");
+        }
+        return builder.toString();
+    }
+
+    private static void pollCollected(){
+        Handle handle;
+        while((handle = (Handle) collected.poll()) != null){
+            if(open.remove(handle)){
+                leaks ++;
+                RobotLog.ww(TAG, handle.origin, "%s was never closed, %d bytes of native memory were held until it was garbage collected. It was built here:", handle.name, handle.nativeBytes);
+            }
+        }
+    }
+
+    public static final class Handle extends WeakReference<Object> {
+        private final String name;
+        private final long nativeBytes;
+        private final Throwable origin;
+
+        private Handle(Object owner, String name, long nativeBytes){
+            super(owner, collected);
+            this.name = name;
+            this.nativeBytes = nativeBytes;
+            this.origin = new Throwable("Built here");
+        }
+    }
+}
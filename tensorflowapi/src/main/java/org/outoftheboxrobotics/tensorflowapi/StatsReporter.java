@@ -0,0 +1,108 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+
+import java.util.Locale;
+
+/**
+ * Periodically writes the stats of a detector or classifier to the RobotLog
+ *
+ * Snapshots and strings are made on the reporter's own thread, so the inference thread never pays for them
+ * Telemetry is not safe to update from another thread, so call addTo() from the OpMode loop, it only adds the last report
+ *
+ * Usage:
+ * <pre>
+ * StatsReporter reporter = new StatsReporter("TFOD", detector, 1000);
+ * reporter.start();
+ * while(opModeIsActive()){
+ *     reporter.addTo(telemetry);
+ *     telemetry.update();
+ * }
+ * reporter.stop();
+ * </pre>
+ */
+public class StatsReporter {
+    private static final String TAG = "TensorStats";
+
+    private final String name;
+    private final StatsSource source;
+    private final long periodMillis;
+    private boolean logToRobotLog = true;
+
+    private volatile String[] lines = new String[0];
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param name shown in front of every line, to tell models apart
+     * @param source the detector or classifier to report on
+     * @param periodMillis time between reports
+     */
+    public StatsReporter(String name, StatsSource source, long periodMillis){
+        this.name = name;
+        this.source = source;
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * Set to false to only report to telemetry
+     * Default is true
+     */
+    public StatsReporter setLogToRobotLog(boolean logToRobotLog){
+        this.logToRobotLog = logToRobotLog;
+        return this;
+    }
+
+    public synchronized void start(){
+        if(running){
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(running){
+                    report();
+                    try {
+                        Thread.sleep(periodMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "TensorStats " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop(){
+        running = false;
+        if(thread != null){
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Adds the most recent report to telemetry, does not call update()
+     */
+    public void addTo(Telemetry telemetry){
+        String[] current = lines;
+        for(int i = 0; i < current.length; i ++){
+            telemetry.addData(name + " " + i, current[i]);
+        }
+    }
+
+    private void report(){
+        InferenceStats.Snapshot snapshot = source.getStats();
+        String[] report = snapshot.toString().split("\n");
+        lines = report;
+        if(logToRobotLog){
+            for(String line : report){
+                RobotLog.ii(TAG, String.format(Locale.US, "%s %s", name, line));
+            }
+        }
+    }
+}
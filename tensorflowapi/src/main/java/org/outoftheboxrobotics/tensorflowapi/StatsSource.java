@@ -0,0 +1,11 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+/**
+ * Anything that keeps InferenceStats, so a StatsReporter can watch it
+ */
+public interface StatsSource {
+    /**
+     * @return a copy of the current stats, this allocates so do not call it every frame
+     */
+    InferenceStats.Snapshot getStats();
+}
@@ -0,0 +1,96 @@
+package org.outoftheboxrobotics.tensorflowapi.ImageClassification;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TopKSelectorTest {
+    @Test
+    public void keepsHighestScoresSorted(){
+        TopKSelector selector = new TopKSelector(3);
+        float[] scores = {0.1f, 0.9f, 0.3f, 0.7f, 0.2f, 0.8f};
+        for(int i = 0; i < scores.length; i ++){
+            selector.offer(i, scores[i]);
+        }
+        selector.sortDescending();
+
+        assertEquals(3, selector.size());
+        assertEquals(1, selector.indexAt(0));
+        assertEquals(5, selector.indexAt(1));
+        assertEquals(3, selector.indexAt(2));
+        assertEquals(0.9f, selector.scoreAt(0), 0);
+        assertEquals(0.8f, selector.scoreAt(1), 0);
+        assertEquals(0.7f, selector.scoreAt(2), 0);
+    }
+
+    @Test
+    public void keepsEverythingWhenFewerThenK(){
+        TopKSelector selector = new TopKSelector(5);
+        selector.offer(0, 0.2f);
+        selector.offer(1, 0.6f);
+        selector.sortDescending();
+
+        assertEquals(2, selector.size());
+        assertEquals(1, selector.indexAt(0));
+        assertEquals(0, selector.indexAt(1));
+    }
+
+    @Test
+    public void scoreEqualToLowestDoesNotReplaceIt(){
+        TopKSelector selector = new TopKSelector(2);
+        selector.offer(0, 0.5f);
+        selector.offer(1, 0.4f);
+        selector.offer(2, 0.4f);
+        selector.sortDescending();
+
+        assertEquals(0, selector.indexAt(0));
+        assertEquals(1, selector.indexAt(1));
+    }
+
+    @Test
+    public void clearStartsOver(){
+        TopKSelector selector = new TopKSelector(2);
+        selector.offer(0, 0.9f);
+        selector.offer(1, 0.8f);
+        selector.sortDescending();
+        selector.clear();
+
+        assertEquals(0, selector.size());
+        selector.offer(7, 0.1f);
+        selector.sortDescending();
+        assertEquals(1, selector.size());
+        assertEquals(7, selector.indexAt(0));
+    }
+
+    @Test
+    public void zeroKeepsNothing(){
+        TopKSelector selector = new TopKSelector(0);
+        selector.offer(0, 1);
+        selector.sortDescending();
+        assertEquals(0, selector.size());
+    }
+
+    @Test
+    public void matchesFullSort(){
+        Random random = new Random(42);
+        float[] scores = new float[1000];
+        for(int i = 0; i < scores.length; i ++){
+            scores[i] = random.nextFloat();
+        }
+        TopKSelector selector = new TopKSelector(10);
+        for(int i = 0; i < scores.length; i ++){
+            selector.offer(i, scores[i]);
+        }
+        selector.sortDescending();
+
+        float[] sorted = Arrays.copyOf(scores, scores.length);
+        Arrays.sort(sorted);
+        for(int i = 0; i < 10; i ++){
+            assertEquals(sorted[sorted.length - 1 - i], selector.scoreAt(i), 0);
+            assertEquals(scores[selector.indexAt(i)], selector.scoreAt(i), 0);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private static final long LONG_WINDOW = 60000;
+
+    @Test
+    public void emptySnapshotIsZero(){
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram(LONG_WINDOW).snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMeanNanos());
+        assertEquals(0, snapshot.getP50Nanos());
+        assertEquals(0, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void smallValuesAreExact(){
+        //Below 8 every value has its own bucket
+        for(long value = 0; value < 8; value ++){
+            LatencyHistogram histogram = new LatencyHistogram(LONG_WINDOW);
+            histogram.record(value);
+            assertEquals(value, histogram.snapshot().getMaxNanos());
+        }
+    }
+
+    @Test
+    public void percentileIsUpperEdgeOfBucket(){
+        LatencyHistogram histogram = new LatencyHistogram(LONG_WINDOW);
+        //1000 is in the 960-1023 bucket
+        histogram.record(1000);
+        assertEquals(1023, histogram.snapshot().getP50Nanos());
+
+        histogram = new LatencyHistogram(LONG_WINDOW);
+        //Powers of two start a bucket
+        histogram.record(1024);
+        assertEquals(1151, histogram.snapshot().getP50Nanos());
+    }
+
+    @Test
+    public void bucketsAreWithinAnEighth(){
+        for(long value = 8; value < 1L << 40; value = value * 3 / 2 + 1){
+            LatencyHistogram histogram = new LatencyHistogram(LONG_WINDOW);
+            histogram.record(value);
+            long reported = histogram.snapshot().getMaxNanos();
+            assertTrue(value + " was reported as " + reported, reported >= value);
+            assertTrue(value + " was reported as " + reported, reported - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void largestValueFits(){
+        LatencyHistogram histogram = new LatencyHistogram(LONG_WINDOW);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getMaxNanos());
+    }
+
+    @Test
+    public void negativeValuesAreIgnored(){
+        LatencyHistogram histogram = new LatencyHistogram(LONG_WINDOW);
+        histogram.record(-5);
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void percentilesAndMean(){
+        LatencyHistogram histogram = new LatencyHistogram(LONG_WINDOW);
+        //1 to 100 microseconds
+        for(int i = 1; i <= 100; i ++){
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50500, snapshot.getMeanNanos());
+        assertWithinBucket(50000, snapshot.getP50Nanos());
+        assertWithinBucket(90000, snapshot.getP90Nanos());
+        assertWithinBucket(99000, snapshot.getP99Nanos());
+        assertWithinBucket(100000, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void oldWindowsAreDropped() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram(100);
+        histogram.record(1);
+        Thread.sleep(120);
+        //Rotates, the first window is still less then two windows old
+        histogram.record(2);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(1, snapshot.getP50Nanos());
+        assertEquals(2, snapshot.getMaxNanos());
+
+        Thread.sleep(120);
+        //Only the second window is left
+        histogram.record(3);
+        snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(2, snapshot.getP50Nanos());
+        assertEquals(3, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void idleHistogramEmptiesOut() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram(50);
+        histogram.record(1);
+        Thread.sleep(120);
+        //Nothing recorded for more then two windows
+        assertEquals(0, histogram.snapshot().getCount());
+
+        //The first value after the pause does not bring the old ones back
+        histogram.record(2);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(2, snapshot.getMaxNanos());
+    }
+
+    private static void assertWithinBucket(long expected, long actual){
+        assertTrue("Expected about " + expected + " but was " + actual, actual >= expected && actual - expected <= expected / 8);
+    }
+}
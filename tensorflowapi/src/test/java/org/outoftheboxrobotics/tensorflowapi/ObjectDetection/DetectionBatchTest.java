@@ -0,0 +1,137 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionBatchTest {
+    private static final String[] LABELS = {"Ball", "Cube", "Duck"};
+
+    @Test
+    public void newBatchIsEmpty(){
+        DetectionBatch batch = new DetectionBatch();
+        assertEquals(0, batch.size());
+        assertTrue(batch.isEmpty());
+        assertEquals(-1, batch.findBest("Ball"));
+    }
+
+    @Test
+    public void gettersReadTheKeptCandidates(){
+        DetectionBatch batch = new DetectionBatch();
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(10, 20, 50, 100, 0.9f, 1, 7);
+        candidates.add(0, 0, 4, 2, 0.4f, 2, 3);
+        batch.set(candidates, candidates.keepAll(), LABELS, 1234);
+
+        assertEquals(2, batch.size());
+        assertFalse(batch.isEmpty());
+        assertEquals(1234, batch.getImageTimestamp());
+
+        assertEquals(1, batch.getLabelIndex(0));
+        assertEquals("Cube", batch.getLabel(0));
+        assertEquals(0.9f, batch.getScore(0), 0);
+        assertEquals(10, batch.getLeft(0), 0);
+        assertEquals(20, batch.getTop(0), 0);
+        assertEquals(50, batch.getRight(0), 0);
+        assertEquals(100, batch.getBottom(0), 0);
+        assertEquals(30, batch.getCenterX(0), 0);
+        assertEquals(60, batch.getCenterY(0), 0);
+        assertEquals(40, batch.getWidth(0), 0);
+        assertEquals(80, batch.getHeight(0), 0);
+        assertEquals("7", batch.getId(0));
+
+        assertEquals("Duck", batch.getLabel(1));
+        assertEquals("3", batch.getId(1));
+    }
+
+    @Test
+    public void onlyKeptCandidatesAreCopied(){
+        DetectionBatch batch = new DetectionBatch();
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 0.9f, 0, 0);
+        //Suppressed by the first box
+        candidates.add(1, 1, 11, 11, 0.8f, 0, 1);
+        candidates.add(50, 50, 60, 60, 0.6f, 0, 2);
+        batch.set(candidates, new NonMaxSuppression().apply(candidates, 0), LABELS, 0);
+
+        assertEquals(2, batch.size());
+        assertEquals("0", batch.getId(0));
+        assertEquals("2", batch.getId(1));
+    }
+
+    @Test
+    public void idsAreCached(){
+        assertSame(DetectionBatch.idFor(5), DetectionBatch.idFor(5));
+        //Growing the cache keeps the strings already made
+        String id = DetectionBatch.idFor(2);
+        DetectionBatch.idFor(5000);
+        assertSame(id, DetectionBatch.idFor(2));
+        assertEquals("5000", DetectionBatch.idFor(5000));
+    }
+
+    @Test
+    public void findBestPicksHighestScoreOfLabel(){
+        DetectionBatch batch = new DetectionBatch();
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 1, 1, 0.5f, 0, 0);
+        candidates.add(0, 0, 1, 1, 0.95f, 1, 1);
+        candidates.add(0, 0, 1, 1, 0.7f, 0, 2);
+        batch.set(candidates, candidates.keepAll(), LABELS, 0);
+
+        assertEquals(2, batch.findBest("Ball"));
+        assertEquals(1, batch.findBest("Cube"));
+        assertEquals(-1, batch.findBest("Duck"));
+    }
+
+    @Test
+    public void clearEmptiesTheBatch(){
+        DetectionBatch batch = new DetectionBatch();
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 1, 1, 0.5f, 0, 0);
+        batch.set(candidates, candidates.keepAll(), LABELS, 0);
+        batch.clear();
+
+        assertEquals(0, batch.size());
+        assertTrue(batch.isEmpty());
+    }
+
+    @Test
+    public void copyFromGrowsTheBatch(){
+        DetectionBatch source = new DetectionBatch();
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        for(int i = 0; i < 20; i ++){
+            candidates.add(i, i, i + 10, i + 10, i / 20f, i % 3, i);
+        }
+        source.set(candidates, candidates.keepAll(), LABELS, 99);
+
+        DetectionBatch copy = new DetectionBatch(1);
+        copy.copyFrom(source);
+        assertEquals(20, copy.size());
+        assertEquals(99, copy.getImageTimestamp());
+        for(int i = 0; i < 20; i ++){
+            assertEquals(source.getLabel(i), copy.getLabel(i));
+            assertEquals(source.getScore(i), copy.getScore(i), 0);
+            assertEquals(source.getLeft(i), copy.getLeft(i), 0);
+            assertEquals(source.getBottom(i), copy.getBottom(i), 0);
+            assertSame(source.getId(i), copy.getId(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexPastSizeIsRejected(){
+        DetectionBatch batch = new DetectionBatch();
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 1, 1, 0.5f, 0, 0);
+        batch.set(candidates, candidates.keepAll(), LABELS, 0);
+        //Still inside the arrays, but not the batch
+        batch.getScore(1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void negativeIndexIsRejected(){
+        new DetectionBatch().getLeft(-1);
+    }
+}
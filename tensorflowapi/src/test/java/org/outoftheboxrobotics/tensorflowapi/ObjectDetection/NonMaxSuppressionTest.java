@@ -0,0 +1,197 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NonMaxSuppressionTest {
+    @Test
+    public void overlappingBoxOfSameClassIsRemoved(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        //Overlaps the first box with an IoU of 81 / 119
+        candidates.add(1, 1, 11, 11, 0.8f, 0, 1);
+        candidates.add(0, 0, 10, 10, 0.9f, 0, 0);
+        candidates.add(50, 50, 60, 60, 0.6f, 0, 2);
+
+        int kept = new NonMaxSuppression().apply(candidates, 0);
+        assertEquals(2, kept);
+        assertKept(candidates, 1, 2);
+    }
+
+    @Test
+    public void otherClassesDoNotSuppress(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 0.9f, 0, 0);
+        candidates.add(1, 1, 11, 11, 0.8f, 1, 1);
+
+        assertEquals(2, new NonMaxSuppression().apply(candidates, 0));
+        assertKept(candidates, 0, 1);
+
+        assertEquals(1, new NonMaxSuppression().setClassAware(false).apply(candidates, 0));
+        assertKept(candidates, 0);
+    }
+
+    @Test
+    public void iouThresholdIsRespected(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 0.9f, 0, 0);
+        //IoU of 50 / 150, a third
+        candidates.add(5, 0, 15, 10, 0.8f, 0, 1);
+
+        assertEquals(2, new NonMaxSuppression().setIouThreshold(0.5f).apply(candidates, 0));
+        assertEquals(1, new NonMaxSuppression().setIouThreshold(0.3f).apply(candidates, 0));
+    }
+
+    @Test
+    public void smallerBoxInsideIsMatched(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 100, 100, 0.9f, 0, 0);
+        //A quarter of the big box, so an IoU of only 0.25 but fully inside it
+        candidates.add(0, 0, 50, 50, 0.8f, 0, 1);
+
+        assertEquals(2, new NonMaxSuppression().apply(candidates, 0));
+        assertEquals(1, new NonMaxSuppression().setMatchSmallerBox(true).apply(candidates, 0));
+        assertKept(candidates, 0);
+    }
+
+    @Test
+    public void maxPerClassKeepsTheBest(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 0.5f, 0, 0);
+        candidates.add(20, 0, 30, 10, 0.7f, 0, 1);
+        candidates.add(40, 0, 50, 10, 0.6f, 0, 2);
+        candidates.add(60, 0, 70, 10, 0.4f, 1, 3);
+
+        assertEquals(3, new NonMaxSuppression().setMaxPerClass(2).apply(candidates, 0));
+        assertKept(candidates, 1, 2, 3);
+    }
+
+    @Test
+    public void largeClassIdsGrowTheCounts(){
+        DetectionCandidates candidates = new DetectionCandidates(2);
+        candidates.add(0, 0, 10, 10, 0.5f, 90, 0);
+        candidates.add(20, 0, 30, 10, 0.7f, 90, 1);
+
+        assertEquals(1, new NonMaxSuppression().setMaxPerClass(1).apply(candidates, 0));
+        assertKept(candidates, 1);
+    }
+
+    @Test
+    public void softNMSLowersOverlappingScores(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 0.9f, 0, 0);
+        candidates.add(1, 1, 11, 11, 0.8f, 0, 1);
+        candidates.add(50, 50, 60, 60, 0.6f, 0, 2);
+
+        int kept = new NonMaxSuppression().useSoftNMS(0.5f).apply(candidates, 0.3f);
+        assertEquals(3, kept);
+        assertKept(candidates, 0, 2, 1);
+
+        float iou = 81f / 119;
+        assertEquals(0.8f * (float) Math.exp(-iou * iou / 0.5f), candidates.scores[1], 1e-5f);
+        //Boxes that don't overlap keep their score
+        assertEquals(0.6f, candidates.scores[2], 0);
+    }
+
+    @Test
+    public void softNMSDropsBoxesBelowMinScore(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 0.9f, 0, 0);
+        candidates.add(1, 1, 11, 11, 0.8f, 0, 1);
+        candidates.add(50, 50, 60, 60, 0.2f, 0, 2);
+
+        assertEquals(1, new NonMaxSuppression().useSoftNMS(0.5f).apply(candidates, 0.5f));
+        assertKept(candidates, 0);
+    }
+
+    @Test
+    public void scoreEqualToMinScoreIsDroppedEverywhere(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 0.9f, 0, 0);
+        candidates.add(50, 50, 60, 60, 0.5f, 0, 1);
+
+        assertEquals(1, new NonMaxSuppression().useSoftNMS(0.5f).apply(candidates, 0.5f));
+        assertKept(candidates, 0);
+
+        candidates.removeBelow(0.5f);
+        assertEquals(1, candidates.size);
+    }
+
+    @Test
+    public void emptyCandidatesKeepNothing(){
+        assertEquals(0, new NonMaxSuppression().apply(new DetectionCandidates(0), 0));
+        assertEquals(0, new NonMaxSuppression().useSoftNMS(0.5f).apply(new DetectionCandidates(0), 0));
+    }
+
+    @Test
+    public void candidatesGrowAndKeepTheirValues(){
+        DetectionCandidates candidates = new DetectionCandidates(1);
+        for(int i = 0; i < 20; i ++){
+            candidates.add(i, i + 1, i + 2, i + 3, i / 20f, i % 3, i * 2);
+        }
+        assertEquals(20, candidates.size);
+        assertEquals(19, candidates.boxes[19 * 4], 0);
+        assertEquals(22, candidates.boxes[19 * 4 + 3], 0);
+        assertEquals(19 / 20f, candidates.scores[19], 0);
+        assertEquals(1, candidates.classes[19]);
+        assertEquals(38, candidates.rows[19]);
+        //NMS scratch space has to grow along with the boxes
+        assertEquals(20, new NonMaxSuppression().setIouThreshold(1).apply(candidates, 0));
+    }
+
+    @Test
+    public void removeBelowKeepsOrder(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 1, 1, 0.9f, 0, 0);
+        candidates.add(0, 0, 2, 2, 0.1f, 1, 1);
+        candidates.add(0, 0, 3, 3, 0.5f, 2, 2);
+        candidates.add(0, 0, 4, 4, 0.5f, 3, 3);
+
+        candidates.removeBelow(0.5f);
+        assertEquals(1, candidates.size);
+        assertEquals(0, candidates.rows[0]);
+
+        candidates.clear();
+        candidates.add(0, 0, 1, 1, 0.9f, 0, 0);
+        candidates.add(0, 0, 2, 2, 0.1f, 1, 1);
+        candidates.add(0, 0, 3, 3, 0.6f, 2, 2);
+        candidates.removeBelow(0.2f);
+        assertEquals(2, candidates.size);
+        assertEquals(2, candidates.rows[1]);
+        assertEquals(2, candidates.classes[1]);
+        assertEquals(3, candidates.boxes[6], 0);
+    }
+
+    @Test
+    public void keepAllKeepsInOrder(){
+        DetectionCandidates candidates = new DetectionCandidates(2);
+        candidates.add(0, 0, 1, 1, 0.1f, 0, 0);
+        candidates.add(0, 0, 1, 1, 0.9f, 0, 1);
+        assertEquals(2, candidates.keepAll());
+        assertKept(candidates, 0, 1);
+    }
+
+    @Test
+    public void areaAndIntersection(){
+        DetectionCandidates candidates = new DetectionCandidates(4);
+        candidates.add(0, 0, 10, 10, 1, 0, 0);
+        candidates.add(5, 5, 15, 20, 1, 0, 1);
+        candidates.add(20, 20, 30, 30, 1, 0, 2);
+        //Right is left of left
+        candidates.add(10, 0, 5, 10, 1, 0, 3);
+
+        assertEquals(100, candidates.area(0), 0);
+        assertEquals(150, candidates.area(1), 0);
+        assertEquals(0, candidates.area(3), 0);
+        assertEquals(25, candidates.intersection(0, 1), 0);
+        assertEquals(25, candidates.intersection(1, 0), 0);
+        assertEquals(0, candidates.intersection(0, 2), 0);
+    }
+
+    private static void assertKept(DetectionCandidates candidates, int... expected){
+        int[] kept = new int[candidates.keptCount];
+        System.arraycopy(candidates.kept, 0, kept, 0, kept.length);
+        assertArrayEquals(expected, kept);
+    }
+}
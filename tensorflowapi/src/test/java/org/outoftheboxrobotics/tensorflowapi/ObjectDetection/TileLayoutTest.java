@@ -0,0 +1,130 @@
+package org.outoftheboxrobotics.tensorflowapi.ObjectDetection;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TileLayoutTest {
+    @Test
+    public void singleTileIsTheWholeFrame(){
+        List<Rect> tiles = new TileLayout(1, 1, 0).getTiles(640, 480);
+        assertEquals(1, tiles.size());
+        assertEquals(new Rect(0, 0, 640, 480), tiles.get(0));
+    }
+
+    @Test
+    public void gridWithoutOverlapSplitsEvenly(){
+        List<Rect> tiles = new TileLayout(2, 2, 0).getTiles(640, 480);
+        assertEquals(4, tiles.size());
+        //Row by row, left to right
+        assertEquals(new Rect(0, 0, 320, 240), tiles.get(0));
+        assertEquals(new Rect(320, 0, 320, 240), tiles.get(1));
+        assertEquals(new Rect(0, 240, 320, 240), tiles.get(2));
+        assertEquals(new Rect(320, 240, 320, 240), tiles.get(3));
+    }
+
+    @Test
+    public void overlappingTilesCoverTheFrame(){
+        int[][] sizes = {{640, 480}, {1280, 720}, {320, 240}, {641, 479}};
+        for(int[] size : sizes){
+            for(int grid = 1; grid <= 4; grid ++){
+                TileLayout layout = new TileLayout(grid, grid, 0.25);
+                checkCovers(layout.getTiles(size[0], size[1]), grid, grid, 0, 0, size[0], size[1]);
+            }
+        }
+    }
+
+    @Test
+    public void neighboursOverlapByTheFraction(){
+        List<Rect> tiles = new TileLayout(2, 1, 0.25).getTiles(640, 480);
+        Rect left = tiles.get(0), right = tiles.get(1);
+        //Tiles are 640 / 1.75 = 366 wide, overlapping by a quarter of that
+        assertEquals(366, left.width);
+        assertEquals(366, right.width);
+        assertEquals(92, left.x + left.width - right.x);
+    }
+
+    @Test
+    public void regionsGetTheirOwnGridsAndAreClipped(){
+        TileLayout layout = new TileLayout(2, 1, 0)
+                .addRegion(new Rect(0, 0, 200, 100))
+                //Hangs off the bottom right of a 640x480 frame
+                .addRegion(new Rect(540, 400, 200, 200))
+                //Completely outside the frame
+                .addRegion(new Rect(1000, 1000, 50, 50));
+        List<Rect> tiles = layout.getTiles(640, 480);
+
+        assertEquals(4, tiles.size());
+        assertEquals(new Rect(0, 0, 100, 100), tiles.get(0));
+        assertEquals(new Rect(100, 0, 100, 100), tiles.get(1));
+        assertEquals(new Rect(540, 400, 50, 80), tiles.get(2));
+        assertEquals(new Rect(590, 400, 50, 80), tiles.get(3));
+    }
+
+    @Test
+    public void tilesAreCachedPerFrameSize(){
+        TileLayout layout = new TileLayout(2, 2, 0.1);
+        List<Rect> tiles = layout.getTiles(640, 480);
+        assertSame(tiles, layout.getTiles(640, 480));
+        assertNotSame(tiles, layout.getTiles(320, 240));
+
+        tiles = layout.getTiles(320, 240);
+        layout.addRegion(new Rect(0, 0, 100, 100));
+        List<Rect> withRegion = layout.getTiles(320, 240);
+        assertNotSame(tiles, withRegion);
+        checkCovers(withRegion, 2, 2, 0, 0, 100, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroColumnsIsRejected(){
+        new TileLayout(0, 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overlapAboveHalfIsRejected(){
+        new TileLayout(2, 2, 0.6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeOverlapIsRejected(){
+        new TileLayout(2, 2, -0.1);
+    }
+
+    /**
+     * Checks a grid of tiles stays inside the area, reaches all its edges and leaves no gaps between neighbours
+     */
+    private static void checkCovers(List<Rect> tiles, int columns, int rows, int x, int y, int width, int height){
+        assertEquals(columns * rows, tiles.size());
+        for(int row = 0; row < rows; row ++){
+            for(int column = 0; column < columns; column ++){
+                Rect tile = tiles.get(row * columns + column);
+                assertTrue(tile + " is outside the area", tile.x >= x && tile.y >= y
+                        && tile.x + tile.width <= x + width && tile.y + tile.height <= y + height);
+                if(column == 0){
+                    assertEquals(x, tile.x);
+                }else{
+                    Rect previous = tiles.get(row * columns + column - 1);
+                    assertTrue(previous + " and " + tile + " leave a gap", tile.x <= previous.x + previous.width);
+                }
+                if(column == columns - 1){
+                    assertEquals(x + width, tile.x + tile.width);
+                }
+                if(row == 0){
+                    assertEquals(y, tile.y);
+                }else{
+                    Rect above = tiles.get((row - 1) * columns + column);
+                    assertTrue(above + " and " + tile + " leave a gap", tile.y <= above.y + above.height);
+                }
+                if(row == rows - 1){
+                    assertEquals(y + height, tile.y + tile.height);
+                }
+            }
+        }
+    }
+}
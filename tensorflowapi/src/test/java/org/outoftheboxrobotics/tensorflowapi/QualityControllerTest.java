@@ -0,0 +1,174 @@
+package org.outoftheboxrobotics.tensorflowapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QualityControllerTest {
+    private static final long BUDGET = 100, SLOW = 200, FAST = 10;
+
+    @Test
+    public void movesDownOnlyAfterSettling(){
+        QualityController controller = new QualityController(3, BUDGET);
+        //Default settle frames is 10
+        for(int i = 0; i < 9; i ++){
+            assertFalse(controller.record(0, SLOW));
+        }
+        assertTrue(controller.record(0, SLOW));
+        assertEquals(1, controller.getLevel());
+        assertEquals(1, controller.getSwitchCount());
+        assertEquals(-1, controller.getAverageNanos());
+    }
+
+    @Test
+    public void staysAtTheFastestLevel(){
+        QualityController controller = new QualityController(2, BUDGET).setSettleFrames(2);
+        assertEquals(1, run(controller, SLOW, 2));
+        assertEquals(1, controller.getLevel());
+        assertEquals(0, run(controller, SLOW, 50));
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void oneLevelNeverSwitches(){
+        QualityController controller = new QualityController(1, BUDGET).setSettleFrames(1);
+        assertEquals(0, run(controller, SLOW, 20));
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void framesFromOldLevelsAreIgnored(){
+        QualityController controller = new QualityController(3, BUDGET).setSettleFrames(1);
+        assertTrue(controller.record(0, SLOW));
+        //A frame that started before the switch
+        assertFalse(controller.record(0, SLOW));
+        assertEquals(1, controller.getLevel());
+        assertEquals(-1, controller.getAverageNanos());
+    }
+
+    @Test
+    public void averageIsSmoothed(){
+        QualityController controller = new QualityController(2, BUDGET);
+        controller.record(0, 50);
+        assertEquals(50, controller.getAverageNanos());
+        controller.record(0, 100);
+        //Each frame moves the average a fifth of the way
+        assertEquals(60, controller.getAverageNanos());
+    }
+
+    @Test
+    public void onlyOneSlowFrameDoesNotSwitch(){
+        QualityController controller = new QualityController(2, BUDGET).setSettleFrames(1);
+        run(controller, 50, 5);
+        assertFalse(controller.record(0, 200));
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void movesUpWithHeadroomAfterProbeFrames(){
+        QualityController controller = new QualityController(3, BUDGET).setSettleFrames(2).setProbeFrames(4);
+        run(controller, SLOW, 2);
+        assertEquals(1, controller.getLevel());
+
+        assertEquals(0, run(controller, FAST, 3));
+        assertTrue(controller.record(1, FAST));
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void noHeadroomMeansNoMoveUp(){
+        QualityController controller = new QualityController(2, BUDGET).setSettleFrames(2).setProbeFrames(4).setHeadroom(0.5);
+        run(controller, SLOW, 2);
+        //Under budget but not under half of it
+        assertEquals(0, run(controller, 60, 100));
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void failedProbesBackOff(){
+        QualityController controller = new QualityController(2, BUDGET).setSettleFrames(2).setProbeFrames(4);
+        run(controller, SLOW, 2);
+
+        int interval = 4;
+        for(int i = 0; i < 8; i ++){
+            //Probe up, which does not fit
+            assertEquals(interval, framesUntilSwitch(controller, FAST));
+            assertEquals(0, controller.getLevel());
+            assertEquals(2, framesUntilSwitch(controller, SLOW));
+            assertEquals(1, controller.getLevel());
+            //Doubles every time, up to 32 times the probe frames
+            interval = Math.min(interval * 2, 4 * 32);
+        }
+        assertEquals(128, framesUntilSwitch(controller, FAST));
+    }
+
+    @Test
+    public void successfulProbeResetsBackOff(){
+        QualityController controller = new QualityController(2, BUDGET).setSettleFrames(2).setProbeFrames(4);
+        run(controller, SLOW, 2);
+        framesUntilSwitch(controller, FAST);
+        framesUntilSwitch(controller, SLOW);
+        //The failed probe doubled the wait
+        assertEquals(8, framesUntilSwitch(controller, FAST));
+
+        //This time level 0 fits
+        assertEquals(0, run(controller, 50, 10));
+        assertEquals(0, controller.getLevel());
+        framesUntilSwitch(controller, SLOW);
+        assertEquals(1, controller.getLevel());
+        assertEquals(4, framesUntilSwitch(controller, FAST));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroLevelsAreRejected(){
+        new QualityController(0, BUDGET);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroBudgetIsRejected(){
+        new QualityController(2, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void headroomOfOneIsRejected(){
+        new QualityController(2, BUDGET).setHeadroom(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroSettleFramesAreRejected(){
+        new QualityController(2, BUDGET).setSettleFrames(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroProbeFramesAreRejected(){
+        new QualityController(2, BUDGET).setProbeFrames(0);
+    }
+
+    /**
+     * Records frames at the current level
+     * @return number of switches
+     */
+    private static int run(QualityController controller, long nanos, int frames){
+        int switches = 0;
+        for(int i = 0; i < frames; i ++){
+            if(controller.record(controller.getLevel(), nanos)){
+                switches ++;
+            }
+        }
+        return switches;
+    }
+
+    /**
+     * @return number of frames recorded until the level changed
+     */
+    private static int framesUntilSwitch(QualityController controller, long nanos){
+        for(int frames = 1; frames <= 10000; frames ++){
+            if(controller.record(controller.getLevel(), nanos)){
+                return frames;
+            }
+        }
+        throw new AssertionError("The level never changed");
+    }
+}